@@ -0,0 +1,102 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Configures how {@link ConcurrencyLimitsExecutorService} holds tasks that arrive while the limit is reached.
+ * Waiting tasks are handed a permit when an in-flight task releases its own, so no thread is parked per waiter.
+ */
+public final class Backlog {
+
+  private static final Backlog NONE = new Backlog(0, Duration.ZERO, Order.FIFO);
+
+  private final int capacity;
+
+  private final Duration maxWait;
+
+  private final Order order;
+
+  private Backlog(int capacity, Duration maxWait, Order order) {
+    this.capacity = capacity;
+    this.maxWait = maxWait;
+    this.order = order;
+  }
+
+  /**
+   * Tasks are rejected as soon as the limit is reached.
+   */
+  public static Backlog none() {
+    return NONE;
+  }
+
+  public static Backlog fifo(int capacity, Duration maxWait) {
+    return of(capacity, maxWait, Order.FIFO);
+  }
+
+  public static Backlog lifo(int capacity, Duration maxWait) {
+    return of(capacity, maxWait, Order.LIFO);
+  }
+
+  public static Backlog of(int capacity, Duration maxWait, Order order) {
+    Objects.requireNonNull(maxWait, "maxWait");
+    Objects.requireNonNull(order, "order");
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+    }
+    if (maxWait.isNegative()) {
+      throw new IllegalArgumentException("maxWait must not be negative: " + maxWait);
+    }
+    return new Backlog(capacity, maxWait, order);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public Duration getMaxWait() {
+    return maxWait;
+  }
+
+  public Order getOrder() {
+    return order;
+  }
+
+  boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  public enum Order {
+    /**
+     * The oldest waiting task gets the next permit.
+     */
+    FIFO,
+    /**
+     * The newest waiting task gets the next permit, so fresh work wins during overload.
+     */
+    LIFO
+  }
+}
@@ -24,10 +24,15 @@
 package com.github.wreulicke.bricks.concurrent;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.MetricRegistry;
+import com.netflix.concurrency.limits.internal.EmptyMetricRegistry;
 
 public class ConcurrencyLimitsExecutor implements Executor {
 
@@ -35,25 +40,46 @@ public class ConcurrencyLimitsExecutor implements Executor {
 
   private final Executor executor;
 
+  private final MetricRegistry.SampleListener queueWaitTime;
+
   public ConcurrencyLimitsExecutor(Limiter<ConcurrentContext> limiter, Executor executor) {
+    this(limiter, executor, EmptyMetricRegistry.INSTANCE);
+  }
+
+  /**
+   * The time tasks spend in the executor's queue is published, in nanoseconds, as the {@code executor.queue_wait}
+   * distribution. Use {@link ExecutionTimeClock} in the limiter to keep that time out of its samples.
+   */
+  public ConcurrencyLimitsExecutor(Limiter<ConcurrentContext> limiter, Executor executor, MetricRegistry metricRegistry) {
     this.limiter = limiter;
     this.executor = executor;
+    this.queueWaitTime = metricRegistry.registerDistribution("executor.queue_wait");
   }
 
   @Override
   public void execute(Runnable command) {
-    Optional<Limiter.Listener> listenerOpt = limiter.acquire(new ConcurrentContext());
+    execute(new ConcurrentContext(), command);
+  }
+
+  /**
+   * Executes the command with a permit acquired for {@code context}, which lets a partitioned limiter tell it apart.
+   */
+  public void execute(ConcurrentContext context, Runnable command) {
+    Optional<Limiter.Listener> listenerOpt = limiter.acquire(context);
 
     if (!listenerOpt.isPresent()) {
       throw new RejectedExecutionException("Concurrency limit context exceeded");
     }
 
     Limiter.Listener listener = listenerOpt.get();
+    long enqueuedAt = System.nanoTime();
     try {
       executor.execute(() -> {
+        long queueWait = System.nanoTime() - enqueuedAt;
+        queueWaitTime.addSample(queueWait);
         try {
           command.run();
-          listener.onSuccess();
+          ExecutionTimeClock.release(queueWait, listener::onSuccess);
         } catch (Exception e) {
           listener.onIgnore();
           throw e;
@@ -64,4 +90,70 @@ public class ConcurrencyLimitsExecutor implements Executor {
     }
 
   }
+
+  public CompletableFuture<Void> runAsync(Runnable runnable) {
+    return runAsync(new ConcurrentContext(), runnable);
+  }
+
+  public CompletableFuture<Void> runAsync(ConcurrentContext context, Runnable runnable) {
+    return supplyAsync(context, () -> {
+      runnable.run();
+      return null;
+    });
+  }
+
+  public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+    return supplyAsync(new ConcurrentContext(), supplier);
+  }
+
+  public <T> CompletableFuture<T> supplyAsync(ConcurrentContext context, Supplier<T> supplier) {
+    return composeAsync(context, () -> CompletableFuture.completedFuture(supplier.get()));
+  }
+
+  public <T> CompletableFuture<T> composeAsync(Supplier<? extends CompletionStage<T>> supplier) {
+    return composeAsync(new ConcurrentContext(), supplier);
+  }
+
+  /**
+   * Runs the supplier on the executor and holds the permit until the stage it returns completes, so asynchronous work
+   * chained from the supplier is accounted to the limiter. A rejection is reported through the returned future instead
+   * of being thrown.
+   */
+  public <T> CompletableFuture<T> composeAsync(ConcurrentContext context, Supplier<? extends CompletionStage<T>> supplier) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Optional<Limiter.Listener> listenerOpt = limiter.acquire(context);
+
+    if (!listenerOpt.isPresent()) {
+      result.completeExceptionally(new RejectedExecutionException("Concurrency limit context exceeded"));
+      return result;
+    }
+
+    Limiter.Listener listener = listenerOpt.get();
+    long enqueuedAt = System.nanoTime();
+    try {
+      executor.execute(() -> {
+        long queueWait = System.nanoTime() - enqueuedAt;
+        queueWaitTime.addSample(queueWait);
+        try {
+          supplier.get()
+            .whenComplete((value, throwable) -> {
+              if (throwable != null) {
+                listener.onIgnore();
+                result.completeExceptionally(throwable);
+                return;
+              }
+              ExecutionTimeClock.release(queueWait, listener::onSuccess);
+              result.complete(value);
+            });
+        } catch (Throwable e) {
+          listener.onIgnore();
+          result.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      listener.onDropped();
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
 }
@@ -23,19 +23,44 @@
  */
 package com.github.wreulicke.bricks.concurrent;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import com.netflix.concurrency.limits.Limit;
 import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.MetricRegistry;
+import com.netflix.concurrency.limits.internal.EmptyMetricRegistry;
 
 public class ConcurrencyLimitsExecutorService implements ExecutorService {
 
@@ -43,13 +68,60 @@ public class ConcurrencyLimitsExecutorService implements ExecutorService {
 
   private final ExecutorService delegate;
 
+  private final Backlog backlog;
+
+  private final boolean allOrNothing;
+
+  private final MetricRegistry.SampleListener queueWaitTime;
+
+  private final ScheduledExecutorService backlogTimer;
+
+  private final RejectedCommandHandler rejectedCommandHandler;
+
+  private final AtomicLong rejectedCommands = new AtomicLong();
+
+  private final ReentrantLock backlogLock = new ReentrantLock();
+
+  private final AtomicInteger drainWip = new AtomicInteger();
+
+  private final Deque<LimitedTask> pendingTasks = new ArrayDeque<>();
+
+  private final Set<Permit> outstandingPermits = ConcurrentHashMap.newKeySet();
+
   public ConcurrencyLimitsExecutorService(Limiter<ConcurrentContext> limiter, ExecutorService executorService) {
-    this.limiter = limiter;
-    this.delegate = executorService;
+    this(limiter, executorService, Backlog.none());
+  }
+
+  public ConcurrencyLimitsExecutorService(Limiter<ConcurrentContext> limiter, ExecutorService executorService, Backlog backlog) {
+    this(newBuilder(limiter, executorService).backlog(backlog));
+  }
+
+  protected ConcurrencyLimitsExecutorService(Builder builder) {
+    this.limiter = builder.limiter;
+    this.delegate = builder.delegate;
+    this.backlog = builder.backlog;
+    this.allOrNothing = builder.allOrNothing;
+    this.queueWaitTime = builder.metricRegistry.registerDistribution("executor.queue_wait");
+    this.backlogTimer = builder.backlogTimer;
+    this.rejectedCommandHandler = builder.rejectedCommandHandler;
+    builder.metricRegistry.registerGauge("executor.rejected_commands", rejectedCommands::get);
+
+    if (builder.poolSizeLimit != null) {
+      if (!(delegate instanceof ThreadPoolExecutor)) {
+        throw new IllegalArgumentException("adaptive pool size requires a ThreadPoolExecutor: " + delegate.getClass());
+      }
+      ThreadPoolResizer resizer = new ThreadPoolResizer((ThreadPoolExecutor) delegate, builder.minPoolSize, builder.maxPoolSize,
+        builder.poolSizeHysteresis);
+      resizer.follow(builder.poolSizeLimit);
+    }
   }
 
-  private Limiter.Listener acquireListener() {
-    Optional<Limiter.Listener> listenerOpt = limiter.acquire(new ConcurrentContext());
+  public static Builder newBuilder(Limiter<ConcurrentContext> limiter, ExecutorService executorService) {
+    return new Builder(limiter, executorService);
+  }
+
+  private Limiter.Listener acquireListener(ConcurrentContext context) {
+    Optional<Limiter.Listener> listenerOpt = limiter.acquire(context);
 
     if (!listenerOpt.isPresent()) {
       throw new RejectedExecutionException("Concurrency limit context exceeded");
@@ -59,126 +131,396 @@ public class ConcurrencyLimitsExecutorService implements ExecutorService {
     return listener;
   }
 
-  private Runnable decorate(Limiter.Listener listener, Runnable runnable) {
-    return () -> {
-      try {
-        runnable.run();
-        listener.onSuccess();
-      } catch (Exception e) {
-        listener.onIgnore();
-        throw e;
+  /**
+   * Runs the task on the delegate once it holds a permit. Without a backlog, or when the backlog is full, the task is
+   * rejected immediately. A waiting task is removed from the backlog by {@code backlogTimer} once it has waited
+   * {@link Backlog#getMaxWait()} or reached its deadline.
+   */
+  private void admit(LimitedTask task) {
+    if (!backlog.isEnabled()) {
+      dispatch(task, acquireListener(task.context()));
+      return;
+    }
+
+    backlogLock.lock();
+    try {
+      if (pendingTasks.size() >= backlog.getCapacity()) {
+        throw new RejectedExecutionException("Concurrency limit context exceeded");
       }
-    };
+      long maxWait = backlog.getMaxWait()
+        .toNanos();
+      task.expireAfter(Math.min(maxWait, task.nanosToDeadline(System.nanoTime())));
+      if (backlog.getOrder() == Backlog.Order.FIFO) {
+        pendingTasks.offerLast(task);
+      }
+      else {
+        pendingTasks.offerFirst(task);
+      }
+    } finally {
+      backlogLock.unlock();
+    }
+    drain();
   }
 
-  private <T> Callable<T> decorate(Limiter.Listener listener, Callable<T> task) {
-    return () -> {
-      try {
-        T result = task.call();
-        listener.onSuccess();
-        return result;
-      } catch (Exception e) {
-        listener.onIgnore();
-        throw e;
+  /**
+   * Hands out permits to waiting tasks for as long as the limiter grants them. Called whenever a task is admitted to
+   * the backlog and whenever an in-flight task releases its permit. Only one thread drains at a time; a call made
+   * meanwhile, including one from a task released while being dispatched, makes it go round again instead of recursing.
+   * <p>
+   * A partitioned limiter may reject the task at the head while granting a permit to a task of another partition
+   * behind it, so the whole backlog is scanned in order. Each context is tried at most once per round, since the
+   * limiter only grants fewer permits as the round goes on.
+   */
+  private void drain() {
+    if (drainWip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      Set<ConcurrentContext> rejected = new HashSet<>();
+      while (true) {
+        LimitedTask task = null;
+        Limiter.Listener listener = null;
+        backlogLock.lock();
+        try {
+          Iterator<LimitedTask> iterator = pendingTasks.iterator();
+          while (iterator.hasNext()) {
+            LimitedTask candidate = iterator.next();
+            // cancelled tasks normally withdraw themselves, but may still be here while being cancelled
+            if (candidate.isDone()) {
+              iterator.remove();
+              candidate.cancelExpiry();
+              continue;
+            }
+            if (rejected.contains(candidate.context())) {
+              continue;
+            }
+            Optional<Limiter.Listener> listenerOpt = limiter.acquire(candidate.context());
+            if (listenerOpt.isPresent()) {
+              iterator.remove();
+              task = candidate;
+              listener = listenerOpt.get();
+              break;
+            }
+            rejected.add(candidate.context());
+          }
+        } finally {
+          backlogLock.unlock();
+        }
+
+        if (listener == null) {
+          break;
+        }
+        try {
+          dispatch(task, listener);
+        } catch (RejectedExecutionException e) {
+          task.reject(e);
+        }
       }
-    };
+      missed = drainWip.addAndGet(-missed);
+    } while (missed != 0);
   }
 
-  @Override
-  public void execute(Runnable command) {
-    Limiter.Listener listener = acquireListener();
-
+  /**
+   * Removes a task from the backlog, returning whether it was still waiting.
+   */
+  private boolean withdraw(LimitedTask task) {
+    boolean removed;
+    backlogLock.lock();
     try {
-      delegate.execute(decorate(listener, command));
-    } catch (RejectedExecutionException e) {
-      listener.onDropped();
+      removed = pendingTasks.remove(task);
+    } finally {
+      backlogLock.unlock();
     }
-
+    if (removed) {
+      task.cancelExpiry();
+    }
+    return removed;
   }
 
-  @Override
-  public <T> Future<T> submit(Callable<T> task) {
-    Limiter.Listener listener = acquireListener();
+  private void expire(LimitedTask task) {
+    if (!withdraw(task)) {
+      return;
+    }
+    if (task.isExpired(System.nanoTime())) {
+      task.reject(new TimeoutException("Deadline exceeded before the task started"));
+    }
+    else {
+      task.reject(new RejectedExecutionException("Timed out waiting for concurrency limit"));
+    }
+  }
 
+  private void dispatch(LimitedTask task, Limiter.Listener listener) {
+    task.bind(listener);
     try {
-      return delegate.submit(decorate(listener, task));
+      delegate.execute(task);
     } catch (RejectedExecutionException e) {
-      listener.onDropped();
+      Limiter.Listener unbound = task.unbind();
+      if (unbound != null) {
+        unbound.onDropped();
+      }
       throw e;
     }
   }
 
   @Override
-  public <T> Future<T> submit(Runnable task, T result) {
-    Limiter.Listener listener = acquireListener();
+  public void execute(Runnable command) {
+    execute(new ConcurrentContext(), command);
+  }
 
-    try {
-      return delegate.submit(decorate(listener, task), result);
-    } catch (RejectedExecutionException e) {
-      listener.onDropped();
-      throw e;
+  /**
+   * Executes the command with a permit acquired for {@code context}, which lets a partitioned limiter tell it apart.
+   * <p>
+   * With a backlog, a command that has to wait is accepted without an error, but may still never run: it is dropped if
+   * it waits longer than {@link Backlog#getMaxWait()} or the delegate refuses it once a permit is free. Such commands
+   * are passed to the {@link Builder#rejectedCommandHandler(RejectedCommandHandler) rejected command handler} and
+   * counted as {@code executor.rejected_commands}.
+   */
+  public void execute(ConcurrentContext context, Runnable command) {
+    LimitedCommand task = new LimitedCommand(command, context);
+    if (backlog.isEnabled()) {
+      admit(task);
+      return;
     }
+
+    dispatch(task, acquireListener(context));
+  }
+
+  @Override
+  public <T> Future<T> submit(Callable<T> task) {
+    return submit(new ConcurrentContext(), task);
+  }
+
+  @Override
+  public <T> Future<T> submit(Runnable task, T result) {
+    return submit(new ConcurrentContext(), Executors.callable(task, result));
   }
 
   @Override
   public Future<?> submit(Runnable task) {
-    Limiter.Listener listener = acquireListener();
+    return submit(new ConcurrentContext(), task);
+  }
 
-    try {
-      return delegate.submit(decorate(listener, task));
-    } catch (RejectedExecutionException e) {
-      listener.onDropped();
-      throw e;
-    }
+  /**
+   * Submits the task with a permit acquired for {@code context}, which lets a partitioned limiter tell it apart.
+   */
+  public <T> Future<T> submit(ConcurrentContext context, Callable<T> task) {
+    LimitedFuture<T> future = new LimitedFuture<>(task, context);
+    admit(future);
+    return future;
+  }
+
+  /**
+   * @see #submit(ConcurrentContext, Callable)
+   */
+  public Future<?> submit(ConcurrentContext context, Runnable task) {
+    return submit(context, Executors.callable(task));
+  }
+
+  /**
+   * Submits a task which is only worth running within {@code timeout}. When it is dequeued after its deadline, it is
+   * skipped, its future fails with a {@link TimeoutException} and its permit is released with onDropped so the limiter
+   * learns about the overload.
+   */
+  public <T> Future<T> submitWithDeadline(Callable<T> task, long timeout, TimeUnit unit) {
+    LimitedFuture<T> future = new LimitedFuture<>(task, new ConcurrentContext(), unit.toNanos(timeout), null);
+    admit(future);
+    return future;
+  }
+
+  /**
+   * @see #submitWithDeadline(Callable, long, TimeUnit)
+   */
+  public Future<?> submitWithDeadline(Runnable task, long timeout, TimeUnit unit) {
+    return submitWithDeadline(Executors.callable(task), timeout, unit);
   }
 
   @Override
   public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
-    TaskWithListener<Callable<T>> taskWithListeners = tasks.stream()
-      .reduce(new TaskWithListener<>(), (taskWithListener, o) -> {
-        Limiter.Listener listener = acquireListener();
-        return taskWithListener.add(listener, decorate(listener, o));
-      }, TaskWithListener::merge);
+    List<LimitedFuture<T>> futures = startAll(tasks);
 
     try {
-      return delegate.invokeAll(taskWithListeners.tasks);
+      for (LimitedFuture<T> future : futures) {
+        if (!future.isDone()) {
+          try {
+            future.get();
+          } catch (CancellationException | ExecutionException ignore) {
+          }
+        }
+      }
+      return Collections.unmodifiableList(futures);
     } catch (InterruptedException e) {
-      taskWithListeners.listeners.forEach(Limiter.Listener::onIgnore);
-      throw e;
-    } catch (RejectedExecutionException e) {
-      taskWithListeners.listeners.forEach(Limiter.Listener::onDropped);
+      futures.forEach(future -> future.cancel(true));
       throw e;
     }
   }
 
   @Override
   public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
-    TaskWithListener<Callable<T>> taskWithListeners = tasks.stream()
-      .reduce(new TaskWithListener<>(), (taskWithListener, o) -> {
-        Limiter.Listener listener = acquireListener();
-        return taskWithListener.add(listener, decorate(listener, o));
-      }, TaskWithListener::merge);
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    List<LimitedFuture<T>> futures = startAll(tasks);
 
     try {
-      return delegate.invokeAll(taskWithListeners.tasks, timeout, unit);
+      for (LimitedFuture<T> future : futures) {
+        if (!future.isDone()) {
+          try {
+            future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          } catch (CancellationException | ExecutionException ignore) {
+          } catch (TimeoutException e) {
+            break;
+          }
+        }
+      }
+      // cancelled tasks release their permits with onIgnore
+      futures.forEach(future -> future.cancel(true));
+      return Collections.unmodifiableList(futures);
     } catch (InterruptedException e) {
-      taskWithListeners.listeners.forEach(Limiter.Listener::onIgnore);
-      throw e;
-    } catch (RejectedExecutionException e) {
-      taskWithListeners.listeners.forEach(Limiter.Listener::onDropped);
+      futures.forEach(future -> future.cancel(true));
       throw e;
     }
   }
 
+  /**
+   * Acquires a permit for every task in one pass and hands the tasks to the delegate. When the limiter runs out
+   * partway through, either every permit already acquired is released and the call is rejected ({@code allOrNothing}),
+   * or the remaining tasks go through the backlog and their futures fail individually if they cannot be admitted.
+   */
+  private <T> List<LimitedFuture<T>> startAll(Collection<? extends Callable<T>> tasks) {
+    List<LimitedFuture<T>> futures = new ArrayList<>(tasks.size());
+    List<Limiter.Listener> listeners = new ArrayList<>(tasks.size());
+    for (Callable<T> task : tasks) {
+      LimitedFuture<T> future = new LimitedFuture<>(task, new ConcurrentContext());
+      futures.add(future);
+      Optional<Limiter.Listener> listenerOpt = limiter.acquire(future.context());
+      if (listenerOpt.isPresent()) {
+        listeners.add(listenerOpt.get());
+      }
+      else if (allOrNothing) {
+        listeners.forEach(Limiter.Listener::onIgnore);
+        throw new RejectedExecutionException("Concurrency limit context exceeded");
+      }
+      else {
+        listeners.add(null);
+      }
+    }
+
+    for (int i = 0; i < futures.size(); i++) {
+      LimitedFuture<T> future = futures.get(i);
+      Limiter.Listener listener = listeners.get(i);
+      try {
+        if (listener != null) {
+          dispatch(future, listener);
+        }
+        else {
+          admit(future);
+        }
+      } catch (RejectedExecutionException e) {
+        if (!allOrNothing) {
+          future.reject(e);
+          continue;
+        }
+        for (int j = i + 1; j < futures.size(); j++) {
+          Limiter.Listener remaining = listeners.get(j);
+          if (remaining != null) {
+            remaining.onDropped();
+          }
+        }
+        futures.subList(0, i)
+          .forEach(started -> started.cancel(true));
+        throw e;
+      }
+    }
+    return futures;
+  }
+
   @Override
   public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
-    throw new UnsupportedOperationException();
+    try {
+      return doInvokeAny(tasks, false, 0);
+    } catch (TimeoutException cannotHappen) {
+      throw new IllegalStateException(cannotHappen);
+    }
   }
 
   @Override
   public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
     TimeoutException {
-    throw new UnsupportedOperationException();
+    return doInvokeAny(tasks, true, unit.toNanos(timeout));
+  }
+
+  /**
+   * Starts the candidates one after another, acquiring a permit only when a candidate is about to start. A candidate
+   * that cannot get a permit waits until a running one completes. Once a candidate returns, the others are cancelled
+   * and release their permits with onIgnore.
+   */
+  private <T> T doInvokeAny(Collection<? extends Callable<T>> tasks, boolean timed, long nanos) throws InterruptedException, ExecutionException,
+    TimeoutException {
+    if (tasks.isEmpty()) {
+      throw new IllegalArgumentException("tasks must not be empty");
+    }
+    long deadline = timed ? System.nanoTime() + nanos : 0L;
+    BlockingQueue<Future<T>> completionQueue = new LinkedBlockingQueue<>();
+    List<LimitedFuture<T>> futures = new ArrayList<>(tasks.size());
+    Iterator<? extends Callable<T>> iterator = tasks.iterator();
+    Callable<T> next = null;
+    ExecutionException failure = null;
+    int active = 0;
+
+    try {
+      while (true) {
+        Future<T> completed = completionQueue.poll();
+        if (completed == null) {
+          if (next == null && iterator.hasNext()) {
+            next = iterator.next();
+          }
+          if (next != null) {
+            ConcurrentContext context = new ConcurrentContext();
+            Optional<Limiter.Listener> listenerOpt = limiter.acquire(context);
+            if (listenerOpt.isPresent()) {
+              LimitedFuture<T> future = new LimitedFuture<>(next, context, Long.MAX_VALUE, completionQueue);
+              futures.add(future);
+              next = null;
+              dispatch(future, listenerOpt.get());
+              active++;
+              continue;
+            }
+          }
+          if (active == 0) {
+            break;
+          }
+
+          if (timed) {
+            completed = completionQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (completed == null) {
+              throw new TimeoutException();
+            }
+          }
+          else {
+            completed = completionQueue.take();
+          }
+        }
+
+        active--;
+        try {
+          return completed.get();
+        } catch (ExecutionException e) {
+          failure = e;
+        } catch (CancellationException e) {
+          failure = new ExecutionException(e);
+        }
+      }
+
+      if (next != null) {
+        RejectedExecutionException rejected = new RejectedExecutionException("Concurrency limit context exceeded");
+        if (failure != null) {
+          rejected.addSuppressed(failure);
+        }
+        throw rejected;
+      }
+      throw failure;
+    } finally {
+      futures.forEach(future -> future.cancel(true));
+    }
   }
 
   @Override
@@ -186,9 +528,49 @@ public class ConcurrencyLimitsExecutorService implements ExecutorService {
     delegate.shutdown();
   }
 
+  /**
+   * Returns the tasks which never started: those still waiting in the backlog and those the delegate had queued. The
+   * permits of the latter are released with onIgnore. Tasks submitted through {@code execute} are returned as the
+   * original command, submitted tasks as their {@link Future}.
+   */
   @Override
   public List<Runnable> shutdownNow() {
-    return delegate.shutdownNow();
+    List<LimitedTask> waiting;
+    backlogLock.lock();
+    try {
+      waiting = new ArrayList<>(pendingTasks);
+      pendingTasks.clear();
+    } finally {
+      backlogLock.unlock();
+    }
+    waiting.forEach(LimitedTask::cancelExpiry);
+
+    List<Runnable> queued = delegate.shutdownNow();
+    List<Runnable> neverStarted = new ArrayList<>(waiting.size() + queued.size());
+    for (LimitedTask task : waiting) {
+      neverStarted.add(task.unwrap());
+    }
+    for (Runnable runnable : queued) {
+      if (runnable instanceof LimitedTask) {
+        LimitedTask task = (LimitedTask) runnable;
+        Limiter.Listener listener = task.unbind();
+        if (listener != null) {
+          listener.onIgnore();
+        }
+        neverStarted.add(task.unwrap());
+      }
+      else {
+        neverStarted.add(runnable);
+      }
+    }
+    return neverStarted;
+  }
+
+  /**
+   * Returns the number of tasks which hold a permit, whether queued in the delegate or running.
+   */
+  public int getInflightCount() {
+    return outstandingPermits.size();
   }
 
   @Override
@@ -203,39 +585,410 @@ public class ConcurrencyLimitsExecutorService implements ExecutorService {
 
   @Override
   public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
-    return delegate.awaitTermination(timeout, unit);
+    boolean terminated = delegate.awaitTermination(timeout, unit);
+    if (terminated) {
+      releaseOutstandingPermits();
+    }
+    return terminated;
+  }
+
+  /**
+   * Once the delegate has terminated, no task can release its permit any more. Permits still outstanding belong to
+   * tasks the delegate discarded, so they are released with onIgnore to keep the limiter accurate.
+   */
+  private void releaseOutstandingPermits() {
+    for (Permit permit : outstandingPermits) {
+      Limiter.Listener listener = permit.unbind();
+      if (listener != null) {
+        listener.onIgnore();
+      }
+    }
   }
 
-  private static class TaskWithListener<T> {
+  /**
+   * A task which is bound to its permit when it is handed to the delegate and releases it when it completes.
+   */
+  private interface LimitedTask extends Runnable {
+
+    ConcurrentContext context();
 
-    final List<Limiter.Listener> listeners;
+    boolean isExpired(long now);
 
-    final List<T> tasks;
+    long nanosToDeadline(long now);
 
-    TaskWithListener() {
-      listeners = new ArrayList<>();
-      tasks = new ArrayList<>();
+    boolean isDone();
+
+    void expireAfter(long delayNanos);
+
+    void cancelExpiry();
+
+    void bind(Limiter.Listener listener);
+
+    Limiter.Listener unbind();
+
+    void reject(Exception e);
+
+    /**
+     * Returns what the caller submitted, for {@link #shutdownNow()}.
+     */
+    Runnable unwrap();
+  }
+
+  /**
+   * Holds the permit of a task together with the time it was handed to the delegate and the time it started, so that
+   * the queue wait can be published and left out of the limiter's samples. While the task waits in the backlog, it also
+   * holds the timer which expires it.
+   */
+  private final class Permit {
+
+    private final AtomicReference<Limiter.Listener> listener = new AtomicReference<>();
+
+    private volatile long dispatchedAt;
+
+    private volatile long queueWait;
+
+    private volatile ScheduledFuture<?> expiry;
+
+    void expireAfter(LimitedTask task, long delayNanos) {
+      expiry = backlogTimer.schedule(() -> expire(task), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void cancelExpiry() {
+      ScheduledFuture<?> expiry = this.expiry;
+      if (expiry != null) {
+        expiry.cancel(false);
+      }
+    }
+
+    void bind(Limiter.Listener listener) {
+      cancelExpiry();
+      this.dispatchedAt = System.nanoTime();
+      this.listener.set(listener);
+      outstandingPermits.add(this);
+    }
+
+    Limiter.Listener unbind() {
+      Limiter.Listener listener = this.listener.getAndSet(null);
+      if (listener != null) {
+        outstandingPermits.remove(this);
+      }
+      return listener;
+    }
+
+    void started() {
+      queueWait = System.nanoTime() - dispatchedAt;
+      queueWaitTime.addSample(queueWait);
+    }
+
+    void complete(Consumer<Limiter.Listener> outcome) {
+      Limiter.Listener listener = unbind();
+      if (listener != null) {
+        ExecutionTimeClock.release(queueWait, () -> outcome.accept(listener));
+        if (backlog.isEnabled()) {
+          drain();
+        }
+      }
+    }
+  }
+
+  private final class LimitedCommand implements LimitedTask {
+
+    private final Runnable command;
+
+    private final ConcurrentContext context;
+
+    private final Permit permit = new Permit();
+
+    LimitedCommand(Runnable command, ConcurrentContext context) {
+      this.command = command;
+      this.context = context;
+    }
+
+    @Override
+    public void run() {
+      permit.started();
+      try {
+        command.run();
+        permit.complete(Limiter.Listener::onSuccess);
+      } catch (Exception e) {
+        permit.complete(Limiter.Listener::onIgnore);
+        throw e;
+      }
     }
 
-    TaskWithListener(List<Limiter.Listener> listeners, List<T> tasks) {
-      this.listeners = listeners;
-      this.tasks = tasks;
+    @Override
+    public ConcurrentContext context() {
+      return context;
     }
 
-    public TaskWithListener<T> add(Limiter.Listener listener, T task) {
-      List<Limiter.Listener> listeners = new ArrayList<>(this.listeners);
-      listeners.add(listener);
-      List<T> tasks = new ArrayList<>(this.tasks);
-      tasks.add(task);
-      return new TaskWithListener<>(listeners, tasks);
+    @Override
+    public void bind(Limiter.Listener listener) {
+      permit.bind(listener);
     }
 
-    public TaskWithListener<T> merge(TaskWithListener<T> other) {
-      List<Limiter.Listener> listeners = new ArrayList<>(this.listeners);
-      List<T> tasks = new ArrayList<>(this.tasks);
-      listeners.addAll(other.listeners);
-      tasks.addAll(other.tasks);
-      return new TaskWithListener<>(listeners, tasks);
+    @Override
+    public Limiter.Listener unbind() {
+      return permit.unbind();
+    }
+
+    @Override
+    public boolean isExpired(long now) {
+      return false;
+    }
+
+    @Override
+    public long nanosToDeadline(long now) {
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isDone() {
+      return false;
+    }
+
+    @Override
+    public void expireAfter(long delayNanos) {
+      permit.expireAfter(this, delayNanos);
+    }
+
+    @Override
+    public void cancelExpiry() {
+      permit.cancelExpiry();
+    }
+
+    @Override
+    public void reject(Exception e) {
+      // nobody is waiting for the result of execute(), so this is the only trace of the command
+      rejectedCommands.incrementAndGet();
+      try {
+        rejectedCommandHandler.rejected(command, context, e);
+      } catch (RuntimeException handlerFailure) {
+        // must not escape into the drain or the backlog timer
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler()
+          .uncaughtException(thread, handlerFailure);
+      }
+    }
+
+    @Override
+    public Runnable unwrap() {
+      return command;
+    }
+  }
+
+  private final class LimitedFuture<T> extends FutureTask<T> implements LimitedTask {
+
+    private final ConcurrentContext context;
+
+    private final long enqueuedAt = System.nanoTime();
+
+    private final long deadline;
+
+    private final Permit permit = new Permit();
+
+    private final BlockingQueue<Future<T>> completionQueue;
+
+    private volatile boolean failed;
+
+    LimitedFuture(Callable<T> callable, ConcurrentContext context) {
+      this(callable, context, Long.MAX_VALUE, null);
+    }
+
+    LimitedFuture(Callable<T> callable, ConcurrentContext context, long timeoutNanos, BlockingQueue<Future<T>> completionQueue) {
+      super(callable);
+      this.context = context;
+      // compared by subtraction, so Long.MAX_VALUE means no deadline even if the sum overflows
+      this.deadline = enqueuedAt + timeoutNanos;
+      this.completionQueue = completionQueue;
+    }
+
+    @Override
+    public void run() {
+      if (!isDone()) {
+        if (isExpired(System.nanoTime())) {
+          permit.complete(Limiter.Listener::onDropped);
+          setException(new TimeoutException("Deadline exceeded before the task started"));
+          return;
+        }
+        permit.started();
+      }
+      super.run();
+    }
+
+    @Override
+    protected void setException(Throwable t) {
+      failed = true;
+      super.setException(t);
+    }
+
+    @Override
+    protected void done() {
+      permit.complete(failed || isCancelled() ? Limiter.Listener::onIgnore : Limiter.Listener::onSuccess);
+      if (completionQueue != null) {
+        completionQueue.add(this);
+      }
+    }
+
+    @Override
+    public ConcurrentContext context() {
+      return context;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        // leaves room in the backlog right away instead of when it reaches the head
+        withdraw(this);
+      }
+      return cancelled;
+    }
+
+    @Override
+    public void bind(Limiter.Listener listener) {
+      permit.bind(listener);
+      // cancelled while waiting for a permit
+      if (isDone()) {
+        permit.complete(Limiter.Listener::onIgnore);
+      }
+    }
+
+    @Override
+    public Limiter.Listener unbind() {
+      return permit.unbind();
+    }
+
+    @Override
+    public boolean isExpired(long now) {
+      return now - deadline >= 0;
+    }
+
+    @Override
+    public long nanosToDeadline(long now) {
+      return Math.max(0, deadline - now);
+    }
+
+    @Override
+    public void expireAfter(long delayNanos) {
+      permit.expireAfter(this, delayNanos);
+    }
+
+    @Override
+    public void cancelExpiry() {
+      permit.cancelExpiry();
+    }
+
+    @Override
+    public void reject(Exception e) {
+      setException(e);
+    }
+
+    @Override
+    public Runnable unwrap() {
+      return this;
+    }
+  }
+
+  public static class Builder {
+
+    private final Limiter<ConcurrentContext> limiter;
+
+    private final ExecutorService delegate;
+
+    private Backlog backlog = Backlog.none();
+
+    private boolean allOrNothing = false;
+
+    private MetricRegistry metricRegistry = EmptyMetricRegistry.INSTANCE;
+
+    private ScheduledExecutorService backlogTimer = BacklogTimer.INSTANCE;
+
+    private RejectedCommandHandler rejectedCommandHandler = (command, context, cause) -> {
+    };
+
+    private Limit poolSizeLimit;
+
+    private int minPoolSize;
+
+    private int maxPoolSize;
+
+    private int poolSizeHysteresis;
+
+    protected Builder(Limiter<ConcurrentContext> limiter, ExecutorService delegate) {
+      this.limiter = limiter;
+      this.delegate = delegate;
+    }
+
+    public Builder backlog(Backlog backlog) {
+      this.backlog = backlog;
+      return this;
+    }
+
+    /**
+     * Removes tasks from the backlog once they have waited too long. Defaults to a timer thread shared by all
+     * executors.
+     */
+    public Builder backlogTimer(ScheduledExecutorService backlogTimer) {
+      this.backlogTimer = backlogTimer;
+      return this;
+    }
+
+    /**
+     * Notified of commands passed to {@code execute} that waited in the backlog but were dropped without running.
+     * Tasks passed to {@code submit} and {@code invoke*} report this through their future instead.
+     */
+    public Builder rejectedCommandHandler(RejectedCommandHandler rejectedCommandHandler) {
+      this.rejectedCommandHandler = Objects.requireNonNull(rejectedCommandHandler, "rejectedCommandHandler");
+      return this;
+    }
+
+    /**
+     * When enabled, {@code invokeAll} either acquires a permit for every task or rejects the whole batch.
+     */
+    public Builder allOrNothing(boolean allOrNothing) {
+      this.allOrNothing = allOrNothing;
+      return this;
+    }
+
+    /**
+     * Publishes the time tasks spend in the delegate's queue, in nanoseconds, as the {@code executor.queue_wait}
+     * distribution. Use {@link ExecutionTimeClock} in the limiter to keep that time out of its samples.
+     */
+    public Builder metricRegistry(MetricRegistry metricRegistry) {
+      this.metricRegistry = metricRegistry;
+      return this;
+    }
+
+    /**
+     * Resizes the delegate, which must be a {@link ThreadPoolExecutor}, to follow the limit learned by {@code limit}.
+     * Pass the same {@link Limit} the limiter was built with. The pool size stays within {@code minPoolSize} and
+     * {@code maxPoolSize} and is only changed once the limit moves by at least {@code hysteresis}.
+     */
+    public Builder adaptivePoolSize(Limit limit, int minPoolSize, int maxPoolSize, int hysteresis) {
+      this.poolSizeLimit = limit;
+      this.minPoolSize = minPoolSize;
+      this.maxPoolSize = maxPoolSize;
+      this.poolSizeHysteresis = hysteresis;
+      return this;
+    }
+
+    public ConcurrencyLimitsExecutorService build() {
+      return new ConcurrencyLimitsExecutorService(this);
+    }
+  }
+
+  private static final class BacklogTimer {
+
+    private static final ScheduledExecutorService INSTANCE = newTimer();
+
+    private static ScheduledExecutorService newTimer() {
+      ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "concurrency-limits-backlog-timer");
+        thread.setDaemon(true);
+        return thread;
+      });
+      timer.setRemoveOnCancelPolicy(true);
+      return timer;
     }
   }
 }
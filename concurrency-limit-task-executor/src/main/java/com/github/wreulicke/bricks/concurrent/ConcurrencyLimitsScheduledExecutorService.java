@@ -0,0 +1,192 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.netflix.concurrency.limits.Limiter;
+
+/**
+ * Acquires a permit at each firing rather than when the task is scheduled. One-shot tasks that cannot get a permit
+ * fail with {@link RejectedExecutionException}; periodic firings are skipped or deferred by the {@link FiringPolicy}.
+ */
+public class ConcurrencyLimitsScheduledExecutorService extends ConcurrencyLimitsExecutorService implements ScheduledExecutorService {
+
+  private final Limiter<ConcurrentContext> limiter;
+
+  private final ScheduledExecutorService delegate;
+
+  private final FiringPolicy firingPolicy;
+
+  private final LongAdder skippedFirings = new LongAdder();
+
+  public ConcurrencyLimitsScheduledExecutorService(Limiter<ConcurrentContext> limiter, ScheduledExecutorService scheduledExecutorService) {
+    this(limiter, scheduledExecutorService, FiringPolicy.skip());
+  }
+
+  public ConcurrencyLimitsScheduledExecutorService(Limiter<ConcurrentContext> limiter, ScheduledExecutorService scheduledExecutorService,
+    FiringPolicy firingPolicy) {
+    super(newBuilder(limiter, scheduledExecutorService));
+    this.limiter = limiter;
+    this.delegate = scheduledExecutorService;
+    this.firingPolicy = firingPolicy;
+  }
+
+  /**
+   * Returns the number of firings which could not acquire a permit.
+   */
+  public long getSkippedFirings() {
+    return skippedFirings.sum();
+  }
+
+  private Limiter.Listener acquireAtFiring() {
+    Optional<Limiter.Listener> listenerOpt = limiter.acquire(new ConcurrentContext());
+    if (!listenerOpt.isPresent()) {
+      skippedFirings.increment();
+      return null;
+    }
+    return listenerOpt.get();
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+    return delegate.schedule(() -> {
+      Limiter.Listener listener = acquireAtFiring();
+      if (listener == null) {
+        throw new RejectedExecutionException("Concurrency limit context exceeded");
+      }
+      run(listener, command);
+    }, delay, unit);
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    return delegate.schedule(() -> {
+      Limiter.Listener listener = acquireAtFiring();
+      if (listener == null) {
+        throw new RejectedExecutionException("Concurrency limit context exceeded");
+      }
+      try {
+        V result = callable.call();
+        listener.onSuccess();
+        return result;
+      } catch (Exception e) {
+        listener.onIgnore();
+        throw e;
+      }
+    }, delay, unit);
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+    PeriodicFiring firing = new PeriodicFiring(command);
+    return firing.scheduled(delegate.scheduleAtFixedRate(firing, initialDelay, period, unit));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+    PeriodicFiring firing = new PeriodicFiring(command);
+    return firing.scheduled(delegate.scheduleWithFixedDelay(firing, initialDelay, delay, unit));
+  }
+
+  private static void run(Limiter.Listener listener, Runnable command) {
+    try {
+      command.run();
+      listener.onSuccess();
+    } catch (Exception e) {
+      listener.onIgnore();
+      throw e;
+    }
+  }
+
+  private class PeriodicFiring implements Runnable {
+
+    private final Runnable command;
+
+    private final AtomicBoolean deferred = new AtomicBoolean();
+
+    private volatile ScheduledFuture<?> future;
+
+    PeriodicFiring(Runnable command) {
+      this.command = command;
+    }
+
+    ScheduledFuture<?> scheduled(ScheduledFuture<?> future) {
+      this.future = future;
+      return future;
+    }
+
+    @Override
+    public void run() {
+      // a deferred firing is still waiting for a permit
+      if (deferred.get()) {
+        skippedFirings.increment();
+        return;
+      }
+
+      Limiter.Listener listener = acquireAtFiring();
+      if (listener != null) {
+        ConcurrencyLimitsScheduledExecutorService.run(listener, command);
+      }
+      else if (firingPolicy.isDefer() && deferred.compareAndSet(false, true)) {
+        retryLater();
+      }
+    }
+
+    private void retry() {
+      ScheduledFuture<?> future = this.future;
+      if (future != null && future.isDone()) {
+        deferred.set(false);
+        return;
+      }
+
+      Optional<Limiter.Listener> listenerOpt = limiter.acquire(new ConcurrentContext());
+      if (!listenerOpt.isPresent()) {
+        retryLater();
+        return;
+      }
+      try {
+        ConcurrencyLimitsScheduledExecutorService.run(listenerOpt.get(), command);
+      } finally {
+        deferred.set(false);
+      }
+    }
+
+    private void retryLater() {
+      try {
+        delegate.schedule(this::retry, firingPolicy.getRetryDelay()
+          .toNanos(), TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        deferred.set(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.AsyncListenableTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import com.netflix.concurrency.limits.Limiter;
+
+/**
+ * Limits a Spring {@link AsyncListenableTaskExecutor} such as {@code ThreadPoolTaskExecutor}. The delegate keeps
+ * applying its own {@link TaskDecorator} and its lifecycle callbacks are forwarded, so it does not need to be a bean
+ * itself.
+ */
+public class ConcurrencyLimitsTaskExecutor implements AsyncListenableTaskExecutor, InitializingBean, DisposableBean {
+
+  private final Limiter<ConcurrentContext> limiter;
+
+  private final AsyncListenableTaskExecutor delegate;
+
+  public ConcurrencyLimitsTaskExecutor(Limiter<ConcurrentContext> limiter, AsyncListenableTaskExecutor delegate) {
+    this.limiter = limiter;
+    this.delegate = delegate;
+  }
+
+  private Limiter.Listener acquireListener() {
+    Optional<Limiter.Listener> listenerOpt = limiter.acquire(new ConcurrentContext());
+
+    if (!listenerOpt.isPresent()) {
+      throw new TaskRejectedException("Concurrency limit context exceeded");
+    }
+    return listenerOpt.get();
+  }
+
+  private Runnable decorate(Limiter.Listener listener, Runnable runnable) {
+    long enqueuedAt = System.nanoTime();
+    return () -> {
+      long queueWait = System.nanoTime() - enqueuedAt;
+      try {
+        runnable.run();
+        ExecutionTimeClock.release(queueWait, listener::onSuccess);
+      } catch (Exception e) {
+        listener.onIgnore();
+        throw e;
+      }
+    };
+  }
+
+  private <T> Callable<T> decorate(Limiter.Listener listener, Callable<T> callable) {
+    long enqueuedAt = System.nanoTime();
+    return () -> {
+      long queueWait = System.nanoTime() - enqueuedAt;
+      try {
+        T result = callable.call();
+        ExecutionTimeClock.release(queueWait, listener::onSuccess);
+        return result;
+      } catch (Exception e) {
+        listener.onIgnore();
+        throw e;
+      }
+    };
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    Limiter.Listener listener = acquireListener();
+    try {
+      delegate.execute(decorate(listener, task));
+    } catch (RejectedExecutionException e) {
+      listener.onDropped();
+      throw e;
+    }
+  }
+
+  @Override
+  public void execute(Runnable task, long startTimeout) {
+    Limiter.Listener listener = acquireListener();
+    try {
+      delegate.execute(decorate(listener, task), startTimeout);
+    } catch (RejectedExecutionException e) {
+      listener.onDropped();
+      throw e;
+    }
+  }
+
+  @Override
+  public Future<?> submit(Runnable task) {
+    Limiter.Listener listener = acquireListener();
+    try {
+      return delegate.submit(decorate(listener, task));
+    } catch (RejectedExecutionException e) {
+      listener.onDropped();
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> Future<T> submit(Callable<T> task) {
+    Limiter.Listener listener = acquireListener();
+    try {
+      return delegate.submit(decorate(listener, task));
+    } catch (RejectedExecutionException e) {
+      listener.onDropped();
+      throw e;
+    }
+  }
+
+  @Override
+  public ListenableFuture<?> submitListenable(Runnable task) {
+    Limiter.Listener listener = acquireListener();
+    try {
+      return delegate.submitListenable(decorate(listener, task));
+    } catch (RejectedExecutionException e) {
+      listener.onDropped();
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> ListenableFuture<T> submitListenable(Callable<T> task) {
+    Limiter.Listener listener = acquireListener();
+    try {
+      return delegate.submitListenable(decorate(listener, task));
+    } catch (RejectedExecutionException e) {
+      listener.onDropped();
+      throw e;
+    }
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    if (delegate instanceof InitializingBean) {
+      ((InitializingBean) delegate).afterPropertiesSet();
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (delegate instanceof DisposableBean) {
+      ((DisposableBean) delegate).destroy();
+    }
+  }
+}
@@ -23,5 +23,56 @@
  */
 package com.github.wreulicke.bricks.concurrent;
 
+import java.util.Objects;
+
+/**
+ * Describes a task to the limiter. Contexts with the same attributes are equal, so that a limiter partitioning by them
+ * treats them alike.
+ */
 public class ConcurrentContext {
+
+  private final String priority;
+
+  private final String tenant;
+
+  private final String tag;
+
+  public ConcurrentContext() {
+    this(null, null, null);
+  }
+
+  public ConcurrentContext(String priority, String tenant, String tag) {
+    this.priority = priority;
+    this.tenant = tenant;
+    this.tag = tag;
+  }
+
+  public String getPriority() {
+    return priority;
+  }
+
+  public String getTenant() {
+    return tenant;
+  }
+
+  public String getTag() {
+    return tag;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ConcurrentContext that = (ConcurrentContext) o;
+    return Objects.equals(priority, that.priority) && Objects.equals(tenant, that.tenant) && Objects.equals(tag, that.tag);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(priority, tenant, tag);
+  }
 }
@@ -0,0 +1,51 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import com.netflix.concurrency.limits.limiter.AbstractPartitionedLimiter;
+
+/**
+ * Builds limiters which split the limit by an attribute of {@link ConcurrentContext}. Each partition registered with
+ * {@link #partition(String, double)} is guaranteed its percentage of the limit, so work in partitions with a small
+ * share, such as batch work, is shed first when the limit tightens.
+ */
+public class ConcurrentLimiterBuilder extends AbstractPartitionedLimiter.Builder<ConcurrentLimiterBuilder, ConcurrentContext> {
+
+  public ConcurrentLimiterBuilder partitionByPriority() {
+    return partitionResolver(ConcurrentContext::getPriority);
+  }
+
+  public ConcurrentLimiterBuilder partitionByTenant() {
+    return partitionResolver(ConcurrentContext::getTenant);
+  }
+
+  public ConcurrentLimiterBuilder partitionByTag() {
+    return partitionResolver(ConcurrentContext::getTag);
+  }
+
+  @Override
+  protected ConcurrentLimiterBuilder self() {
+    return this;
+  }
+}
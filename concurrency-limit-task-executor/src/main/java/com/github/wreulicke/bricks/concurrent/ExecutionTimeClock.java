@@ -0,0 +1,61 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+/**
+ * A clock for {@code AbstractLimiter.Builder#clock} which leaves out the time a task waited in the delegate's queue.
+ * Limiters built with it see only the execution time of tasks run through {@link ConcurrencyLimitsExecutor} and
+ * {@link ConcurrencyLimitsExecutorService}, so a saturated pool does not shrink the limit. Limiters built with the
+ * default clock keep measuring from submission to completion.
+ *
+ * <pre>
+ * SimpleLimiter.newBuilder()
+ *   .clock(ExecutionTimeClock::nanoTime)
+ *   .build();
+ * </pre>
+ */
+public final class ExecutionTimeClock {
+
+  private static final ThreadLocal<long[]> EXCLUDED = ThreadLocal.withInitial(() -> new long[1]);
+
+  private ExecutionTimeClock() {
+  }
+
+  public static long nanoTime() {
+    return System.nanoTime() - EXCLUDED.get()[0];
+  }
+
+  /**
+   * Runs {@code release} with the clock on the current thread set back by {@code queueWaitNanos}.
+   */
+  static void release(long queueWaitNanos, Runnable release) {
+    long[] excluded = EXCLUDED.get();
+    excluded[0] = queueWaitNanos;
+    try {
+      release.run();
+    } finally {
+      excluded[0] = 0;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Decides what {@link ConcurrencyLimitsScheduledExecutorService} does with a periodic firing that cannot acquire a
+ * permit.
+ */
+public final class FiringPolicy {
+
+  private static final FiringPolicy SKIP = new FiringPolicy(null);
+
+  private final Duration retryDelay;
+
+  private FiringPolicy(Duration retryDelay) {
+    this.retryDelay = retryDelay;
+  }
+
+  /**
+   * The firing is dropped and the task runs again at its next scheduled time.
+   */
+  public static FiringPolicy skip() {
+    return SKIP;
+  }
+
+  /**
+   * The firing is retried after {@code retryDelay} until it gets a permit. At most one deferred firing is pending per
+   * task, further firings are skipped while it waits.
+   */
+  public static FiringPolicy defer(Duration retryDelay) {
+    Objects.requireNonNull(retryDelay, "retryDelay");
+    if (retryDelay.isNegative() || retryDelay.isZero()) {
+      throw new IllegalArgumentException("retryDelay must be positive: " + retryDelay);
+    }
+    return new FiringPolicy(retryDelay);
+  }
+
+  boolean isDefer() {
+    return retryDelay != null;
+  }
+
+  Duration getRetryDelay() {
+    return retryDelay;
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.netflix.concurrency.limits.Limiter;
+
+/**
+ * Blocks the acquiring thread until a permit is released or the timeout expires. Unlike {@code BlockingLimiter} it
+ * waits on a {@link Condition} rather than a monitor, so a waiting virtual thread unmounts from its carrier.
+ */
+class ParkingLimiter<ContextT> implements Limiter<ContextT> {
+
+  private final Limiter<ContextT> delegate;
+
+  private final long timeoutNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition released = lock.newCondition();
+
+  ParkingLimiter(Limiter<ContextT> delegate, long timeout, TimeUnit unit) {
+    this.delegate = delegate;
+    this.timeoutNanos = unit.toNanos(timeout);
+  }
+
+  @Override
+  public Optional<Listener> acquire(ContextT context) {
+    long remaining = timeoutNanos;
+    lock.lock();
+    try {
+      while (true) {
+        Optional<Listener> listenerOpt = delegate.acquire(context);
+        if (listenerOpt.isPresent()) {
+          return Optional.of(new ParkingListener(listenerOpt.get()));
+        }
+        if (remaining <= 0) {
+          return Optional.empty();
+        }
+        try {
+          remaining = released.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread()
+            .interrupt();
+          return Optional.empty();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void signal() {
+    lock.lock();
+    try {
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private class ParkingListener implements Listener {
+
+    private final Listener delegate;
+
+    ParkingListener(Listener delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onSuccess() {
+      delegate.onSuccess();
+      signal();
+    }
+
+    @Override
+    public void onIgnore() {
+      delegate.onIgnore();
+      signal();
+    }
+
+    @Override
+    public void onDropped() {
+      delegate.onDropped();
+      signal();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+
+import com.netflix.concurrency.limits.Limit;
+
+/**
+ * Keeps the core and maximum size of a {@link ThreadPoolExecutor} at the learned limit, bounded by
+ * {@code minPoolSize} and {@code maxPoolSize}. Changes smaller than {@code hysteresis} threads are ignored so that a
+ * jittering limit does not keep starting and retiring threads.
+ */
+class ThreadPoolResizer implements Consumer<Integer> {
+
+  private final ThreadPoolExecutor pool;
+
+  private final int minPoolSize;
+
+  private final int maxPoolSize;
+
+  private final int hysteresis;
+
+  ThreadPoolResizer(ThreadPoolExecutor pool, int minPoolSize, int maxPoolSize, int hysteresis) {
+    if (minPoolSize < 1) {
+      throw new IllegalArgumentException("minPoolSize must be positive: " + minPoolSize);
+    }
+    if (maxPoolSize < minPoolSize) {
+      throw new IllegalArgumentException("maxPoolSize must not be less than minPoolSize: " + maxPoolSize);
+    }
+    if (hysteresis < 0) {
+      throw new IllegalArgumentException("hysteresis must not be negative: " + hysteresis);
+    }
+    this.pool = pool;
+    this.minPoolSize = minPoolSize;
+    this.maxPoolSize = maxPoolSize;
+    this.hysteresis = hysteresis;
+  }
+
+  void follow(Limit limit) {
+    resize(limit.getLimit(), 0);
+    limit.notifyOnChange(this);
+  }
+
+  @Override
+  public void accept(Integer newLimit) {
+    resize(newLimit, hysteresis);
+  }
+
+  private synchronized void resize(int newLimit, int threshold) {
+    int target = Math.max(minPoolSize, Math.min(maxPoolSize, newLimit));
+    int current = pool.getMaximumPoolSize();
+    if (target == current || Math.abs(target - current) < threshold) {
+      return;
+    }
+
+    // the core size must never exceed the maximum size in between
+    if (target > current) {
+      pool.setMaximumPoolSize(target);
+      pool.setCorePoolSize(target);
+    }
+    else {
+      pool.setCorePoolSize(target);
+      pool.setMaximumPoolSize(target);
+    }
+  }
+}
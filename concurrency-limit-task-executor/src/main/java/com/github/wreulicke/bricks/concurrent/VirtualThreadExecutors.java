@@ -0,0 +1,104 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.concurrency.limits.Limiter;
+
+/**
+ * Builds {@link ConcurrencyLimitsExecutorService}s which run every task on its own virtual thread. With no pool size
+ * left to bound concurrency, the limiter is the only backpressure: a submitting thread blocks until a permit is
+ * released, waiting on a {@link java.util.concurrent.locks.Condition} so that a virtual thread unmounts from its
+ * carrier meanwhile.
+ * <p>
+ * Virtual threads need Java 21. The JDK factory is looked up at runtime, so this class loads on Java 8 and fails only
+ * when an executor is requested.
+ */
+public final class VirtualThreadExecutors {
+
+  private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadFactory();
+
+  private VirtualThreadExecutors() {
+  }
+
+  private static MethodHandle findVirtualThreadFactory() {
+    try {
+      return MethodHandles.publicLookup()
+        .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether the running JDK provides virtual threads.
+   */
+  public static boolean isSupported() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * Waits for a permit without a bound.
+   *
+   * @throws UnsupportedOperationException if the running JDK has no virtual threads
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor(Limiter<ConcurrentContext> limiter) {
+    return newVirtualThreadPerTaskExecutor(limiter, Duration.ofNanos(Long.MAX_VALUE));
+  }
+
+  /**
+   * Waits at most {@code maxWait} for a permit before the task is rejected.
+   *
+   * @throws UnsupportedOperationException if the running JDK has no virtual threads
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor(Limiter<ConcurrentContext> limiter, Duration maxWait) {
+    return newParkingExecutor(limiter, maxWait, newVirtualThreadPerTaskDelegate());
+  }
+
+  static ExecutorService newParkingExecutor(Limiter<ConcurrentContext> limiter, Duration maxWait, ExecutorService delegate) {
+    ParkingLimiter<ConcurrentContext> parkingLimiter = new ParkingLimiter<>(limiter, maxWait.toNanos(), TimeUnit.NANOSECONDS);
+    return new ConcurrencyLimitsExecutorService(parkingLimiter, delegate);
+  }
+
+  private static ExecutorService newVirtualThreadPerTaskDelegate() {
+    if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later, running on Java " + System.getProperty(
+        "java.specification.version"));
+    }
+    try {
+      return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invokeExact();
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException("Could not create a virtual-thread executor", e);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent.autoconfigure;
+
+import java.util.concurrent.Executor;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.task.TaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.AsyncAnnotationBeanPostProcessor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.github.wreulicke.bricks.concurrent.ConcurrencyLimitsTaskExecutor;
+import com.github.wreulicke.bricks.concurrent.ConcurrentContext;
+import com.netflix.concurrency.limits.Limit;
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import com.netflix.concurrency.limits.limit.GradientLimit;
+import com.netflix.concurrency.limits.limit.VegasLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+
+/**
+ * Replaces the application task executor, which also serves {@code @Async} methods, with a
+ * {@link ConcurrencyLimitsTaskExecutor} around the {@link ThreadPoolTaskExecutor} Spring Boot would have created. Runs
+ * before {@link TaskExecutionAutoConfiguration} so that its executor backs off.
+ */
+@Configuration
+@ConditionalOnClass(ThreadPoolTaskExecutor.class)
+@ConditionalOnProperty(prefix = "bricks.concurrency-limits.task-execution", name = "enabled", matchIfMissing = true)
+@AutoConfigureBefore(TaskExecutionAutoConfiguration.class)
+@EnableConfigurationProperties(ConcurrencyLimitsTaskExecutionProperties.class)
+public class ConcurrencyLimitsTaskExecutionAutoConfiguration {
+
+  @Lazy
+  @Bean(name = { TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME,
+    AsyncAnnotationBeanPostProcessor.DEFAULT_TASK_EXECUTOR_BEAN_NAME })
+  @ConditionalOnMissingBean(Executor.class)
+  public ConcurrencyLimitsTaskExecutor applicationTaskExecutor(ObjectProvider<TaskExecutorBuilder> taskExecutorBuilder,
+    ConcurrencyLimitsTaskExecutionProperties properties) {
+    ThreadPoolTaskExecutor delegate = taskExecutorBuilder.getIfAvailable(TaskExecutorBuilder::new)
+      .build();
+    Limiter<ConcurrentContext> limiter = SimpleLimiter.newBuilder()
+      .limit(limit(properties))
+      .build();
+    return new ConcurrencyLimitsTaskExecutor(limiter, delegate);
+  }
+
+  private Limit limit(ConcurrencyLimitsTaskExecutionProperties properties) {
+    switch (properties.getAlgorithm()) {
+      case FIXED:
+        return FixedLimit.of(properties.getInitialLimit());
+      case GRADIENT:
+        return GradientLimit.newBuilder()
+          .initialLimit(properties.getInitialLimit())
+          .minLimit(properties.getMinLimit())
+          .maxConcurrency(properties.getMaxLimit())
+          .build();
+      case VEGAS:
+      default:
+        return VegasLimit.newBuilder()
+          .initialLimit(properties.getInitialLimit())
+          .maxConcurrency(properties.getMaxLimit())
+          .build();
+    }
+  }
+}
@@ -0,0 +1,356 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+
+class ConcurrencyLimitsExecutorServiceTest {
+
+  private final SimpleLimiter<ConcurrentContext> limiter = SimpleLimiter.newBuilder()
+    .limit(FixedLimit.of(1))
+    .build();
+
+  private final ExecutorService delegate = Executors.newFixedThreadPool(4);
+
+  private final CountDownLatch blocker = new CountDownLatch(1);
+
+  @AfterEach
+  public void tearDown() {
+    blocker.countDown();
+    delegate.shutdownNow();
+  }
+
+  @Test
+  public void waitingTaskRunsWhenPermitIsReleased() throws Exception {
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(limiter, delegate, Backlog.fifo(10, Duration.ofSeconds(10)));
+    sut.submit(this::block);
+    Future<String> waiting = sut.submit(() -> "done");
+
+    assertThat(waiting.isDone()).isFalse();
+    blocker.countDown();
+
+    assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+    awaitQuiescence();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void waitingTaskIsRejectedAfterMaxWait() {
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(limiter, delegate, Backlog.fifo(10, Duration.ofMillis(50)));
+    sut.submit(this::block);
+    Future<String> waiting = sut.submit(() -> "done");
+
+    // nothing else is submitted or released, so only the timer can reject it
+    assertThatThrownBy(() -> waiting.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+      .hasCauseInstanceOf(RejectedExecutionException.class);
+  }
+
+  @Test
+  public void waitingTaskFailsWhenItsDeadlinePasses() {
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(limiter, delegate, Backlog.fifo(10, Duration.ofSeconds(10)));
+    sut.submit(this::block);
+    Future<?> waiting = sut.submitWithDeadline(() -> {
+    }, 50, TimeUnit.MILLISECONDS);
+
+    assertThatThrownBy(() -> waiting.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+      .hasCauseInstanceOf(TimeoutException.class);
+  }
+
+  @Test
+  public void waitingCommandIsReportedWhenRejectedAfterMaxWait() throws Exception {
+    CountDownLatch reported = new CountDownLatch(1);
+    List<Object> rejected = new CopyOnWriteArrayList<>();
+    ConcurrencyLimitsExecutorService sut = ConcurrencyLimitsExecutorService.newBuilder(limiter, delegate)
+      .backlog(Backlog.fifo(10, Duration.ofMillis(50)))
+      .rejectedCommandHandler((command, context, cause) -> {
+        rejected.add(command);
+        rejected.add(cause);
+        reported.countDown();
+      })
+      .build();
+    sut.submit(this::block);
+    Runnable command = () -> {
+    };
+    sut.execute(command);
+
+    assertThat(reported.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(rejected.get(0)).isSameAs(command);
+    assertThat(rejected.get(1)).isInstanceOf(RejectedExecutionException.class);
+  }
+
+  @Test
+  public void cancelledTaskLeavesBacklog() throws Exception {
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(limiter, delegate, Backlog.fifo(1, Duration.ofSeconds(10)));
+    sut.submit(this::block);
+    AtomicBoolean cancelledRan = new AtomicBoolean();
+    Future<?> cancelled = sut.submit(() -> cancelledRan.set(true));
+
+    assertThat(cancelled.cancel(false)).isTrue();
+    Future<String> waiting = sut.submit(() -> "done");
+    blocker.countDown();
+
+    assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+    assertThat(cancelledRan.get()).isFalse();
+  }
+
+  @Test
+  public void taskBehindManyCancelledTasksRuns() throws Exception {
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(limiter, delegate, Backlog.fifo(100_000, Duration.ofSeconds(10)));
+    sut.submit(this::block);
+    for (int i = 0; i < 50_000; i++) {
+      sut.submit(() -> {
+      })
+        .cancel(false);
+    }
+    Future<String> waiting = sut.submit(() -> "done");
+
+    blocker.countDown();
+
+    assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+    awaitQuiescence();
+    assertThat(sut.getInflightCount()).isZero();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void taskOfAnotherPartitionIsNotStuckBehindRejectedHead() throws Exception {
+    Limiter<ConcurrentContext> partitioned = new ConcurrentLimiterBuilder().partitionByPriority()
+      .partition("interactive", 0.5)
+      .partition("batch", 0.5)
+      .limit(FixedLimit.of(2))
+      .build();
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(partitioned, delegate, Backlog.fifo(10, Duration.ofSeconds(10)));
+    ConcurrentContext batch = new ConcurrentContext("batch", null, null);
+    sut.submit(batch, this::block);
+    sut.submit(batch, this::block);
+    Future<String> waitingBatch = sut.submit(batch, () -> "batch");
+
+    Future<String> interactive = sut.submit(new ConcurrentContext("interactive", null, null), () -> "interactive");
+
+    assertThat(interactive.get(5, TimeUnit.SECONDS)).isEqualTo("interactive");
+    assertThat(waitingBatch.isDone()).isFalse();
+  }
+
+  @Test
+  public void invokeAllRejectsWholeBatchWhenLimitIsTooLow() {
+    ConcurrencyLimitsExecutorService sut = ConcurrencyLimitsExecutorService.newBuilder(limiter, delegate)
+      .allOrNothing(true)
+      .build();
+    AtomicInteger started = new AtomicInteger();
+    Callable<Void> task = () -> {
+      started.incrementAndGet();
+      return null;
+    };
+
+    assertThatThrownBy(() -> sut.invokeAll(Arrays.asList(task, task))).isInstanceOf(RejectedExecutionException.class);
+
+    assertThat(started.get()).isZero();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void invokeAllCancelsStartedTasksWhenDelegateRejectsPartway() throws Exception {
+    ExecutorService singleThread = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+    SimpleLimiter<ConcurrentContext> wideLimiter = SimpleLimiter.newBuilder()
+      .limit(FixedLimit.of(10))
+      .build();
+    ConcurrencyLimitsExecutorService sut = ConcurrencyLimitsExecutorService.newBuilder(wideLimiter, singleThread)
+      .allOrNothing(true)
+      .build();
+    AtomicInteger started = new AtomicInteger();
+    Callable<Void> task = () -> {
+      started.incrementAndGet();
+      return block();
+    };
+
+    assertThatThrownBy(() -> sut.invokeAll(Arrays.asList(task, task, task))).isInstanceOf(RejectedExecutionException.class);
+
+    singleThread.shutdown();
+    assertThat(singleThread.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(started.get()).isLessThanOrEqualTo(1);
+    assertThat(wideLimiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void invokeAnyAcquiresPermitOnlyWhenCandidateStarts() throws Exception {
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(limiter, delegate);
+    AtomicInteger started = new AtomicInteger();
+    Callable<String> slow = () -> {
+      started.incrementAndGet();
+      Thread.sleep(100);
+      return "slow";
+    };
+    Callable<String> next = () -> {
+      started.incrementAndGet();
+      return "next";
+    };
+
+    // the second candidate would be rejected if its permit were acquired up front
+    assertThat(sut.invokeAny(Arrays.asList(slow, next))).isEqualTo("slow");
+
+    awaitQuiescence();
+    assertThat(started.get()).isEqualTo(1);
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void invokeAnyCancelsLosersWithIgnore() throws Exception {
+    SimpleLimiter<ConcurrentContext> wideLimiter = SimpleLimiter.newBuilder()
+      .limit(FixedLimit.of(2))
+      .build();
+    AtomicInteger ignored = new AtomicInteger();
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(countingIgnores(wideLimiter, ignored), delegate);
+    AtomicBoolean interrupted = new AtomicBoolean();
+    Callable<String> loser = () -> {
+      try {
+        block();
+      } catch (InterruptedException e) {
+        interrupted.set(true);
+      }
+      return "loser";
+    };
+    Callable<String> winner = () -> {
+      Thread.sleep(50);
+      return "winner";
+    };
+
+    assertThat(sut.invokeAny(Arrays.asList(loser, winner))).isEqualTo("winner");
+
+    awaitQuiescence();
+    assertThat(interrupted.get()).isTrue();
+    assertThat(ignored.get()).isEqualTo(1);
+    assertThat(wideLimiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void invokeAnyFailsWhenEveryCandidateFails() throws Exception {
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(limiter, delegate);
+    Callable<String> failing = () -> {
+      throw new IllegalStateException("failed");
+    };
+
+    assertThatThrownBy(() -> sut.invokeAny(Arrays.asList(failing, failing, failing))).isInstanceOf(ExecutionException.class)
+      .hasCauseInstanceOf(IllegalStateException.class);
+
+    awaitQuiescence();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void timedInvokeAnyCancelsCandidatesOnTimeout() throws Exception {
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(limiter, delegate);
+    Callable<Void> blocking = this::block;
+
+    assertThatThrownBy(() -> sut.invokeAny(Arrays.asList(blocking, blocking), 100, TimeUnit.MILLISECONDS))
+      .isInstanceOf(TimeoutException.class);
+
+    awaitQuiescence();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void shutdownNowReleasesPermitsOfQueuedTasks() throws Exception {
+    ExecutorService singleThread = Executors.newSingleThreadExecutor();
+    SimpleLimiter<ConcurrentContext> wideLimiter = SimpleLimiter.newBuilder()
+      .limit(FixedLimit.of(2))
+      .build();
+    ConcurrencyLimitsExecutorService sut = new ConcurrencyLimitsExecutorService(wideLimiter, singleThread, Backlog.fifo(10, Duration.ofSeconds(10)));
+    sut.submit(this::block);
+    Future<?> queuedInDelegate = sut.submit(() -> {
+    });
+    Future<?> waitingInBacklog = sut.submit(() -> {
+    });
+    assertThat(sut.getInflightCount()).isEqualTo(2);
+
+    List<Runnable> neverStarted = sut.shutdownNow();
+
+    assertThat(neverStarted.size()).isEqualTo(2);
+    assertThat(neverStarted.contains(queuedInDelegate)).isTrue();
+    assertThat(neverStarted.contains(waitingInBacklog)).isTrue();
+    assertThat(sut.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(sut.getInflightCount()).isZero();
+    assertThat(wideLimiter.getInflight()).isZero();
+  }
+
+  /**
+   * Futures complete before releasing their permit, so wait for the delegate to finish before counting permits.
+   */
+  private void awaitQuiescence() throws InterruptedException {
+    delegate.shutdown();
+    assertThat(delegate.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  private static Limiter<ConcurrentContext> countingIgnores(Limiter<ConcurrentContext> limiter, AtomicInteger ignored) {
+    return context -> limiter.acquire(context)
+      .map(listener -> new Limiter.Listener() {
+
+        @Override
+        public void onSuccess() {
+          listener.onSuccess();
+        }
+
+        @Override
+        public void onIgnore() {
+          ignored.incrementAndGet();
+          listener.onIgnore();
+        }
+
+        @Override
+        public void onDropped() {
+          listener.onDropped();
+        }
+      });
+  }
+
+  private Void block() throws InterruptedException {
+    blocker.await();
+    return null;
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.concurrent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+
+class VirtualThreadExecutorsTest {
+
+  private final SimpleLimiter<ConcurrentContext> limiter = SimpleLimiter.newBuilder()
+    .limit(FixedLimit.of(1))
+    .build();
+
+  private final ExecutorService delegate = Executors.newCachedThreadPool();
+
+  private final ExecutorService submitter = Executors.newSingleThreadExecutor();
+
+  private final CountDownLatch blocker = new CountDownLatch(1);
+
+  @AfterEach
+  public void tearDown() {
+    blocker.countDown();
+    delegate.shutdownNow();
+    submitter.shutdownNow();
+  }
+
+  @Test
+  public void olderJdkFailsClearly() {
+    Assumptions.assumeFalse(VirtualThreadExecutors.isSupported());
+
+    assertThatThrownBy(() -> VirtualThreadExecutors.newVirtualThreadPerTaskExecutor(limiter)).isInstanceOf(
+      UnsupportedOperationException.class);
+  }
+
+  @Test
+  public void tasksRunOnVirtualThreads() throws Exception {
+    Assumptions.assumeTrue(VirtualThreadExecutors.isSupported());
+    ExecutorService sut = VirtualThreadExecutors.newVirtualThreadPerTaskExecutor(limiter);
+
+    Future<Boolean> virtual = sut.submit(() -> (Boolean) Thread.class.getMethod("isVirtual")
+      .invoke(Thread.currentThread()));
+
+    assertThat(virtual.get(5, TimeUnit.SECONDS)).isTrue();
+    sut.shutdown();
+  }
+
+  @Test
+  public void submitterWaitsForPermit() throws Exception {
+    ExecutorService sut = VirtualThreadExecutors.newParkingExecutor(limiter, Duration.ofSeconds(10), delegate);
+    sut.submit(this::block);
+
+    Future<Future<String>> waiting = submitter.submit(() -> sut.submit(() -> "done"));
+    Thread.sleep(100);
+    assertThat(waiting.isDone()).isFalse();
+
+    blocker.countDown();
+    assertThat(waiting.get(5, TimeUnit.SECONDS)
+      .get(5, TimeUnit.SECONDS)).isEqualTo("done");
+  }
+
+  @Test
+  public void submitterIsRejectedAfterMaxWait() {
+    ExecutorService sut = VirtualThreadExecutors.newParkingExecutor(limiter, Duration.ofMillis(50), delegate);
+    sut.submit(this::block);
+
+    long start = System.nanoTime();
+    assertThatThrownBy(() -> sut.submit(() -> "done")).isInstanceOf(RejectedExecutionException.class);
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  private Void block() throws InterruptedException {
+    blocker.await();
+    return null;
+  }
+}
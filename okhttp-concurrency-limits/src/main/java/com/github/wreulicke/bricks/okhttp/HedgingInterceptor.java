@@ -0,0 +1,300 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import com.netflix.concurrency.limits.limiter.AbstractLimiter;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends a second attempt of a GET or HEAD request when the first has not responded within the observed latency
+ * percentile of its host, and returns whichever successful response arrives first. The other attempt is cancelled.
+ * When neither attempt succeeds, the response from the server is preferred over a local rejection by the limiter, so
+ * that neither a fast error nor a hedge rejected locally replaces a slow success. Until a host has enough samples,
+ * requests to it are not hedged.
+ * <p>
+ * Attempts are made through {@code attemptClient}, typically a client carrying {@link OkHttpClientLimitInterceptor}
+ * but not this interceptor. They run on a dedicated {@link Dispatcher} without request caps, so that they never wait for
+ * slots held by the calls they are made for; concurrency is bounded by the limiter instead. A hedge is only sent while
+ * {@code hasSparePermits} reports spare capacity, so hedging does not add load to a saturated backend. If the limit
+ * fills up before the hedge acquires its permit, the hedge is rejected locally and the primary attempt decides.
+ */
+public class HedgingInterceptor implements Interceptor {
+
+  private static final int MAX_HOSTS = 1024;
+
+  private static final int WINDOW_SIZE = 128;
+
+  private static final int MIN_SAMPLES = 20;
+
+  private static final long CANCEL_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  private final Call.Factory callFactory;
+
+  private final BooleanSupplier hasSparePermits;
+
+  private final double percentile;
+
+  private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+  public HedgingInterceptor(OkHttpClient attemptClient, AbstractLimiter<?> limiter) {
+    this(attemptClient, () -> limiter.getInflight() < limiter.getLimit(), 0.95);
+  }
+
+  public HedgingInterceptor(OkHttpClient attemptClient, BooleanSupplier hasSparePermits, double percentile) {
+    for (Interceptor interceptor : attemptClient.interceptors()) {
+      if (interceptor instanceof HedgingInterceptor) {
+        throw new IllegalArgumentException("attemptClient must not hedge its own attempts");
+      }
+    }
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(Integer.MAX_VALUE);
+    dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+    this.callFactory = attemptClient.newBuilder()
+      .dispatcher(dispatcher)
+      .build();
+    this.hasSparePermits = hasSparePermits;
+    this.percentile = percentile;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    if (!"GET".equals(request.method()) && !"HEAD".equals(request.method())) {
+      return chain.proceed(request);
+    }
+
+    LatencyWindow window = window(request.url()
+      .host());
+    Attempt primary = new Attempt(request, window);
+    long threshold = window == null ? -1 : window.threshold;
+    if (threshold >= 0) {
+      Response response = await(chain, primary.result, threshold, primary);
+      if (response != null) {
+        return response;
+      }
+      if (hasSparePermits.getAsBoolean()) {
+        Attempt hedge = new Attempt(request, window);
+        Race race = new Race(primary, hedge);
+        return await(chain, race.winner, -1, primary, hedge);
+      }
+    }
+    return await(chain, primary.result, -1, primary);
+  }
+
+  private LatencyWindow window(String host) {
+    LatencyWindow window = latencies.get(host);
+    if (window == null && latencies.size() < MAX_HOSTS) {
+      window = latencies.computeIfAbsent(host, ignored -> new LatencyWindow());
+    }
+    return window;
+  }
+
+  /**
+   * Waits up to {@code timeoutNanos}, or without bound if negative, and returns null on timeout. The attempts are
+   * cancelled when the waiting thread is interrupted or the call they are made for is cancelled.
+   */
+  private static Response await(Chain chain, CompletableFuture<Response> result, long timeoutNanos, Attempt... attempts)
+    throws IOException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    while (true) {
+      long wait = timeoutNanos < 0 ? CANCEL_CHECK_NANOS : Math.min(CANCEL_CHECK_NANOS, deadline - System.nanoTime());
+      try {
+        return result.get(Math.max(0, wait), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        if (chain.call()
+          .isCanceled()) {
+          cancel(attempts);
+          throw new IOException("Canceled");
+        }
+        if (timeoutNanos >= 0 && deadline - System.nanoTime() <= 0) {
+          return null;
+        }
+      } catch (InterruptedException e) {
+        cancel(attempts);
+        throw interrupted();
+      } catch (ExecutionException e) {
+        throw unwrap(e);
+      }
+    }
+  }
+
+  private static void cancel(Attempt... attempts) {
+    for (Attempt attempt : attempts) {
+      attempt.call.cancel();
+    }
+  }
+
+  private static InterruptedIOException interrupted() {
+    Thread.currentThread()
+      .interrupt();
+    return new InterruptedIOException("interrupted while waiting for a response");
+  }
+
+  private static IOException unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+  }
+
+  private class Attempt implements Callback {
+
+    private final Call call;
+
+    private final LatencyWindow window;
+
+    private final long startTime = System.nanoTime();
+
+    private final CompletableFuture<Response> result = new CompletableFuture<>();
+
+    Attempt(Request request, LatencyWindow window) {
+      this.call = callFactory.newCall(request);
+      this.window = window;
+      call.enqueue(this);
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+      result.completeExceptionally(e);
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+      if (window != null && response.isSuccessful()) {
+        window.record(System.nanoTime() - startTime);
+      }
+      result.complete(response);
+    }
+  }
+
+  /**
+   * Completes {@code winner} with the first successful response and cancels the other attempts. Until every attempt
+   * has finished without success, the best response so far is held back: one from the server over a local rejection,
+   * and any response over a failure. Responses that lose are closed.
+   */
+  private static class Race {
+
+    private final CompletableFuture<Response> winner = new CompletableFuture<>();
+
+    private final Attempt[] attempts;
+
+    private int pending;
+
+    private Response fallback;
+
+    private Throwable failure;
+
+    Race(Attempt... attempts) {
+      this.attempts = attempts;
+      this.pending = attempts.length;
+      for (Attempt attempt : attempts) {
+        attempt.result.whenComplete((response, e) -> complete(attempt, response, e));
+      }
+    }
+
+    private synchronized void complete(Attempt attempt, Response response, Throwable e) {
+      pending--;
+      if (winner.isDone()) {
+        close(response);
+        return;
+      }
+      if (response != null && response.isSuccessful()) {
+        close(fallback);
+        fallback = null;
+        winner.complete(response);
+        for (Attempt other : attempts) {
+          // cancelling the winning call would close the body it is streaming
+          if (other != attempt) {
+            other.call.cancel();
+          }
+        }
+        return;
+      }
+      if (response != null) {
+        if (fallback == null || LimiterResponses.isLocalRejection(fallback) && !LimiterResponses.isLocalRejection(response)) {
+          close(fallback);
+          fallback = response;
+        }
+        else {
+          close(response);
+        }
+      }
+      else if (failure == null) {
+        failure = e;
+      }
+      if (pending == 0) {
+        if (fallback != null) {
+          winner.complete(fallback);
+        }
+        else {
+          winner.completeExceptionally(failure);
+        }
+      }
+    }
+
+    private static void close(Response response) {
+      if (response != null) {
+        response.close();
+      }
+    }
+  }
+
+  private class LatencyWindow {
+
+    private final long[] samples = new long[WINDOW_SIZE];
+
+    private int next;
+
+    private int size;
+
+    private volatile long threshold = -1;
+
+    synchronized void record(long nanos) {
+      samples[next] = nanos;
+      next = (next + 1) % samples.length;
+      size = Math.min(size + 1, samples.length);
+      if (size >= MIN_SAMPLES) {
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        threshold = sorted[Math.max(0, (int) Math.ceil(percentile * size) - 1)];
+      }
+    }
+  }
+}
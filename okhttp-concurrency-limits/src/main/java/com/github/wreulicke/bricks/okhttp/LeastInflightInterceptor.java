@@ -0,0 +1,138 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.github.wreulicke.bricks.limiter.DynamicPartitionedLimiter;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends each request to the replica with the most spare concurrency. Two replicas are picked at random and the one with
+ * more available permits in a {@link DynamicPartitionedLimiter} wins. Saturated replicas are skipped while any other
+ * replica has permits left.
+ * <p>
+ * The scheme, host and port of the request are replaced with those of the chosen replica, and the replica's path is
+ * prepended to the request's path, so request URLs should carry only the path below the replica's base URL. Add it
+ * before {@link OkHttpClientLimitInterceptor} using the same limiter, such as one built by
+ * {@link OkHttpClientLimiterBuilder#dynamicPartitionByHost(int)}. Every replica must map to its own partition of that
+ * limiter.
+ */
+public class LeastInflightInterceptor implements Interceptor {
+
+  private final List<Replica> replicas;
+
+  private final DynamicPartitionedLimiter<OkhttpClientRequestContext> limiter;
+
+  public LeastInflightInterceptor(List<HttpUrl> replicas, DynamicPartitionedLimiter<OkhttpClientRequestContext> limiter) {
+    if (replicas.isEmpty()) {
+      throw new IllegalArgumentException("replicas must not be empty");
+    }
+    this.limiter = limiter;
+    this.replicas = new ArrayList<>(replicas.size());
+    Set<String> partitions = new HashSet<>();
+    for (HttpUrl url : replicas) {
+      Replica replica = new Replica(url);
+      if (!partitions.add(replica.partition)) {
+        throw new IllegalArgumentException("replicas must map to distinct partitions of the limiter: " + url);
+      }
+      this.replicas.add(replica);
+    }
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Replica replica = choose();
+    Request request = chain.request();
+    HttpUrl url = request.url()
+      .newBuilder()
+      .scheme(replica.url.scheme())
+      .host(replica.url.host())
+      .port(replica.url.port())
+      .encodedPath(replica.pathPrefix + request.url()
+        .encodedPath())
+      .build();
+    return chain.proceed(request.newBuilder()
+      .url(url)
+      .build());
+  }
+
+  private Replica choose() {
+    int size = replicas.size();
+    if (size == 1) {
+      return replicas.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = (first + 1 + random.nextInt(size - 1)) % size;
+    Replica candidate = replicas.get(first);
+    int available = candidate.available();
+    Replica other = replicas.get(second);
+    int otherAvailable = other.available();
+    if (otherAvailable > available) {
+      candidate = other;
+      available = otherAvailable;
+    }
+    if (available > 0) {
+      return candidate;
+    }
+    for (int i = 0; i < size; i++) {
+      Replica replica = replicas.get((first + i) % size);
+      if (replica.available() > 0) {
+        return replica;
+      }
+    }
+    return candidate;
+  }
+
+  private class Replica {
+
+    private final HttpUrl url;
+
+    private final String pathPrefix;
+
+    private final String partition;
+
+    Replica(HttpUrl url) {
+      String path = url.encodedPath();
+      this.url = url;
+      this.pathPrefix = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+      this.partition = limiter.partitionKey(new OkhttpClientRequestContext(new Request.Builder().url(url)
+        .build()));
+    }
+
+    int available() {
+      return limiter.getAvailablePermits(partition);
+    }
+  }
+}
@@ -0,0 +1,301 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.netflix.concurrency.limits.Limiter;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Timeout;
+
+/**
+ * Decides admission when a call is executed or enqueued, before OkHttp's {@code Dispatcher} hands it a thread.
+ * Enqueued calls that find the limit reached wait in a bounded, non-blocking queue and are passed to the dispatcher
+ * when another call releases its permit. A queued call waits at most its {@link Call#timeout()}, if it has one. Calls
+ * rejected outright or timed out in the queue get the same synthetic 503 response as
+ * {@link OkHttpClientLimitInterceptor}, which should not be installed on the delegate as well.
+ */
+public class LimitedCallFactory implements Call.Factory {
+
+  private final Call.Factory delegate;
+
+  private final Limiter<OkhttpClientRequestContext> limiter;
+
+  private final int maxQueuedCalls;
+
+  private final Deque<LimitedCall> queuedCalls = new ConcurrentLinkedDeque<>();
+
+  private final AtomicInteger queuedCallCount = new AtomicInteger();
+
+  private final AtomicInteger drainWip = new AtomicInteger();
+
+  private final ScheduledExecutorService timer;
+
+  public LimitedCallFactory(Call.Factory delegate, Limiter<OkhttpClientRequestContext> limiter, int maxQueuedCalls) {
+    this(delegate, limiter, maxQueuedCalls, SharedTimer.INSTANCE);
+  }
+
+  /**
+   * @param timer expires queued calls whose timeout has elapsed
+   */
+  public LimitedCallFactory(Call.Factory delegate, Limiter<OkhttpClientRequestContext> limiter, int maxQueuedCalls,
+    ScheduledExecutorService timer) {
+    this.delegate = delegate;
+    this.limiter = limiter;
+    this.maxQueuedCalls = maxQueuedCalls;
+    this.timer = timer;
+  }
+
+  @Override
+  public Call newCall(Request request) {
+    return new LimitedCall(delegate.newCall(request));
+  }
+
+  public int getQueuedCallCount() {
+    return queuedCallCount.get();
+  }
+
+  private boolean offer(LimitedCall call) {
+    if (queuedCallCount.incrementAndGet() > maxQueuedCalls) {
+      queuedCallCount.decrementAndGet();
+      return false;
+    }
+    queuedCalls.offerLast(call);
+    return true;
+  }
+
+  private boolean remove(LimitedCall call) {
+    if (queuedCalls.remove(call)) {
+      queuedCallCount.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Passes queued calls to the dispatcher for as long as the limiter grants permits. Only one thread drains at a time; a
+   * call made meanwhile, such as from a released permit, makes it go round again, so that no release is missed between
+   * a failed acquire and returning.
+   * <p>
+   * With a partitioned limiter, a call whose host or header partition is exhausted must not hold back the calls of
+   * other partitions queued behind it, so each round walks the whole queue and leaves refused calls where they are.
+   */
+  private void drain() {
+    if (drainWip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      Iterator<LimitedCall> iterator = queuedCalls.iterator();
+      while (iterator.hasNext()) {
+        LimitedCall call = iterator.next();
+        Optional<Limiter.Listener> listenerOpt = limiter.acquire(call.context());
+        if (!listenerOpt.isPresent()) {
+          continue;
+        }
+        if (remove(call)) {
+          call.dispatch(listenerOpt.get());
+        }
+        else {
+          // cancelled or expired since it was seen
+          listenerOpt.get()
+            .onIgnore();
+        }
+      }
+      missed = drainWip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private class LimitedCall implements Call {
+
+    private final Call call;
+
+    private final AtomicBoolean executed = new AtomicBoolean();
+
+    private volatile Callback callback;
+
+    private volatile ScheduledFuture<?> expiry;
+
+    LimitedCall(Call call) {
+      this.call = call;
+    }
+
+    OkhttpClientRequestContext context() {
+      return new OkhttpClientRequestContext(call.request(), call.timeout()
+        .timeoutNanos());
+    }
+
+    @Override
+    public Request request() {
+      return call.request();
+    }
+
+    @Override
+    public Response execute() throws IOException {
+      if (!executed.compareAndSet(false, true)) {
+        throw new IllegalStateException("Already Executed");
+      }
+      Optional<Limiter.Listener> listenerOpt = limiter.acquire(context());
+      if (!listenerOpt.isPresent()) {
+        return LimiterResponses.limitReached(call.request());
+      }
+
+      Limiter.Listener listener = listenerOpt.get();
+      try {
+        Response response = call.execute();
+        LimiterResponses.release(listener, response);
+        return response;
+      } catch (IOException e) {
+        listener.onIgnore();
+        throw e;
+      } finally {
+        drain();
+      }
+    }
+
+    @Override
+    public void enqueue(Callback responseCallback) {
+      if (!executed.compareAndSet(false, true)) {
+        throw new IllegalStateException("Already Executed");
+      }
+      this.callback = responseCallback;
+
+      // queued calls may all belong to other, exhausted partitions
+      Optional<Limiter.Listener> listenerOpt = limiter.acquire(context());
+      if (listenerOpt.isPresent()) {
+        dispatch(listenerOpt.get());
+        return;
+      }
+      if (!offer(this)) {
+        respondLimitReached();
+        return;
+      }
+      long timeoutNanos = call.timeout()
+        .timeoutNanos();
+      if (timeoutNanos > 0) {
+        expiry = timer.schedule(this::expire, timeoutNanos, TimeUnit.NANOSECONDS);
+      }
+      // a permit may have been released before the call was queued
+      drain();
+    }
+
+    private void expire() {
+      if (remove(this)) {
+        respondLimitReached();
+      }
+    }
+
+    void dispatch(Limiter.Listener listener) {
+      ScheduledFuture<?> expiry = this.expiry;
+      if (expiry != null) {
+        expiry.cancel(false);
+      }
+      call.enqueue(new Callback() {
+
+        @Override
+        public void onFailure(Call ignore, IOException e) {
+          listener.onIgnore();
+          drain();
+          callback.onFailure(LimitedCall.this, e);
+        }
+
+        @Override
+        public void onResponse(Call ignore, Response response) throws IOException {
+          LimiterResponses.release(listener, response);
+          drain();
+          callback.onResponse(LimitedCall.this, response);
+        }
+      });
+    }
+
+    private void respondLimitReached() {
+      try {
+        callback.onResponse(this, LimiterResponses.limitReached(call.request()));
+      } catch (IOException ignore) {
+        // like OkHttp, a callback failing on its response is not reported back to it
+      }
+    }
+
+    @Override
+    public void cancel() {
+      call.cancel();
+      if (remove(this)) {
+        ScheduledFuture<?> expiry = this.expiry;
+        if (expiry != null) {
+          expiry.cancel(false);
+        }
+        callback.onFailure(this, new IOException("Canceled"));
+      }
+    }
+
+    @Override
+    public boolean isExecuted() {
+      return executed.get();
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return call.isCanceled();
+    }
+
+    @Override
+    public Timeout timeout() {
+      return call.timeout();
+    }
+
+    @Override
+    public Call clone() {
+      return new LimitedCall(call.clone());
+    }
+  }
+
+  private static final class SharedTimer {
+
+    private static final ScheduledExecutorService INSTANCE = newTimer();
+
+    private static ScheduledExecutorService newTimer() {
+      ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "limited-call-factory-timer");
+        thread.setDaemon(true);
+        return thread;
+      });
+      timer.setRemoveOnCancelPolicy(true);
+      return timer;
+    }
+  }
+}
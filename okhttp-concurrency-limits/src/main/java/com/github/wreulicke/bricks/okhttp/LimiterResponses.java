@@ -0,0 +1,89 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+import com.netflix.concurrency.limits.Limiter;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+final class LimiterResponses {
+
+  private static final String LIMIT_REACHED_MESSAGE = "Client concurrency limit reached";
+
+  private static final String BACKING_OFF_MESSAGE = "Backing off until Retry-After";
+
+  private LimiterResponses() {
+  }
+
+  static void release(Limiter.Listener listener, Response response) {
+    release(listener, response, code -> code == 503);
+  }
+
+  static void release(Limiter.Listener listener, Response response, IntPredicate overloadStatus) {
+    if (response.isSuccessful()) {
+      listener.onSuccess();
+    }
+    else if (overloadStatus.test(response.code())) {
+      listener.onDropped();
+    }
+    else {
+      listener.onIgnore();
+    }
+  }
+
+  static Response limitReached(Request request) {
+    return new Response.Builder().code(503)
+      .protocol(Protocol.HTTP_1_1) // dummy
+      .request(request)
+      .message(LIMIT_REACHED_MESSAGE)
+      .body(ResponseBody.create(null, new byte[0]))
+      .build();
+  }
+
+  /**
+   * Returns whether {@code response} was made up locally by {@link #limitReached} or {@link #backingOff} rather than
+   * received from the server.
+   */
+  static boolean isLocalRejection(Response response) {
+    return response.networkResponse() == null && response.cacheResponse() == null && (LIMIT_REACHED_MESSAGE.equals(response
+      .message()) || BACKING_OFF_MESSAGE.equals(response.message()));
+  }
+
+  static Response backingOff(Request request, long remainingNanos) {
+    long seconds = TimeUnit.NANOSECONDS.toSeconds(remainingNanos - 1) + 1;
+    return new Response.Builder().code(503)
+      .protocol(Protocol.HTTP_1_1) // dummy
+      .request(request)
+      .message(BACKING_OFF_MESSAGE)
+      .header("Retry-After", Long.toString(seconds))
+      .body(ResponseBody.create(null, new byte[0]))
+      .build();
+  }
+}
@@ -25,39 +25,70 @@ package com.github.wreulicke.bricks.okhttp;
 
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import com.netflix.concurrency.limits.Limiter;
 
 import okhttp3.Interceptor;
-import okhttp3.Protocol;
 import okhttp3.Response;
-import okhttp3.ResponseBody;
 
 public class OkHttpClientLimitInterceptor implements Interceptor {
   private final Limiter<OkhttpClientRequestContext> contextLimiter;
 
+  private final boolean releaseOnBodyConsumed;
+
+  private final RetryAfterBackoff backoff;
+
   public OkHttpClientLimitInterceptor(Limiter<OkhttpClientRequestContext> contextLimiter) {
+    this(contextLimiter, false);
+  }
+
+  /**
+   * @param releaseOnBodyConsumed when true, a successful response keeps its permit until its body has been read to the
+   *          end or closed, so that large and streaming downloads are sampled with their full transfer time
+   */
+  public OkHttpClientLimitInterceptor(Limiter<OkhttpClientRequestContext> contextLimiter, boolean releaseOnBodyConsumed) {
+    this(contextLimiter, releaseOnBodyConsumed, null);
+  }
+
+  /**
+   * @param backoff when not null, decides which status codes are reported as drops, and rejects requests locally while
+   *          their partition is backing off after an overload response carrying {@code Retry-After}
+   */
+  public OkHttpClientLimitInterceptor(Limiter<OkhttpClientRequestContext> contextLimiter, boolean releaseOnBodyConsumed,
+    RetryAfterBackoff backoff) {
     this.contextLimiter = contextLimiter;
+    this.releaseOnBodyConsumed = releaseOnBodyConsumed;
+    this.backoff = backoff;
   }
 
   @Override
   public Response intercept(Chain chain) throws IOException {
-    OkhttpClientRequestContext context = new OkhttpClientRequestContext(chain.request());
+    long backoffNanos = backoff == null ? 0 : backoff.remainingNanos(chain.request());
+    if (backoffNanos > 0) {
+      return LimiterResponses.backingOff(chain.request(), backoffNanos);
+    }
+
+    OkhttpClientRequestContext context = new OkhttpClientRequestContext(chain.request(), timeoutNanos(chain));
     Optional<Limiter.Listener> listerOpt = contextLimiter.acquire(context);
     if (listerOpt.isPresent()) {
       Limiter.Listener listener = listerOpt.get();
       try {
         Response response = chain.proceed(chain.request());
-        if (response.isSuccessful()) {
-          listener.onSuccess();
+        if (backoff != null) {
+          backoff.record(chain.request(), response);
+        }
+        if (releaseOnBodyConsumed && response.isSuccessful() && response.body() != null) {
+          return response.newBuilder()
+            .body(new ReleasingResponseBody(response.body(), listener))
+            .build();
         }
-        else if (response.code() == 503) {
-          listener.onDropped();
+        if (backoff != null) {
+          LimiterResponses.release(listener, response, backoff::isOverloaded);
         }
         else {
-          listener.onIgnore();
+          LimiterResponses.release(listener, response);
         }
-
         return response;
       } catch (IOException e) {
         listener.onIgnore();
@@ -65,12 +96,24 @@ public class OkHttpClientLimitInterceptor implements Interceptor {
       }
     }
     else {
-      return new Response.Builder().code(503)
-        .protocol(Protocol.HTTP_1_1) // dummy
-        .request(chain.request())
-        .message("Client concurrency limit reached")
-        .body(ResponseBody.create(null, new byte[0]))
-        .build();
+      return LimiterResponses.limitReached(chain.request());
+    }
+  }
+
+  /**
+   * The shorter of the call timeout and the read timeout, bounding how long a blocking limiter may wait.
+   */
+  private static long timeoutNanos(Chain chain) {
+    long callTimeout = chain.call()
+      .timeout()
+      .timeoutNanos();
+    long readTimeout = TimeUnit.MILLISECONDS.toNanos(chain.readTimeoutMillis());
+    if (callTimeout == 0) {
+      return readTimeout;
+    }
+    if (readTimeout == 0) {
+      return callTimeout;
     }
+    return Math.min(callTimeout, readTimeout);
   }
 }
@@ -23,13 +23,15 @@
  */
 package com.github.wreulicke.bricks.okhttp;
 
+import java.time.Duration;
+
+import com.github.wreulicke.bricks.limiter.DynamicPartitionedLimiter;
 import com.netflix.concurrency.limits.Limiter;
 import com.netflix.concurrency.limits.limiter.AbstractPartitionedLimiter;
-import com.netflix.concurrency.limits.limiter.BlockingLimiter;
 
 public class OkHttpClientLimiterBuilder extends AbstractPartitionedLimiter.Builder<OkHttpClientLimiterBuilder, OkhttpClientRequestContext> {
 
-  private boolean blockOnLimit = false;
+  private Duration maxBlockingWait;
 
   public OkHttpClientLimiterBuilder partitionByHeaderName(String headerName) {
     return partitionResolver(context -> context.request()
@@ -42,8 +44,43 @@ public class OkHttpClientLimiterBuilder extends AbstractPartitionedLimiter.Build
       .host());
   }
 
+  /**
+   * Creates a limiter with an adaptive limit per host, bounded to {@code maxPartitions} live hosts.
+   */
+  public static DynamicPartitionedLimiter.Builder<OkhttpClientRequestContext> dynamicPartitionByHost(int maxPartitions) {
+    return DynamicPartitionedLimiter.<OkhttpClientRequestContext> newBuilder()
+      .partitionResolver(context -> context.request()
+        .url()
+        .host())
+      .maxPartitions(maxPartitions);
+  }
+
+  /**
+   * Creates a limiter with an adaptive limit per header value, bounded to {@code maxPartitions} live values.
+   */
+  public static DynamicPartitionedLimiter.Builder<OkhttpClientRequestContext> dynamicPartitionByHeaderName(String headerName,
+    int maxPartitions) {
+    return DynamicPartitionedLimiter.<OkhttpClientRequestContext> newBuilder()
+      .partitionResolver(context -> context.request()
+        .header(headerName))
+      .maxPartitions(maxPartitions);
+  }
+
+  /**
+   * Blocks callers until a permit is available. The wait is still bounded by the call's own call or read timeout.
+   */
   public <T> OkHttpClientLimiterBuilder blockOnLimit(boolean blockOnLimit) {
-    this.blockOnLimit = blockOnLimit;
+    this.maxBlockingWait = blockOnLimit ? Duration.ofNanos(Long.MAX_VALUE) : null;
+    return this;
+  }
+
+  /**
+   * Blocks callers for at most {@code maxWait}, or the call's own call or read timeout if that is shorter, before
+   * responding with the synthetic 503. The time spent blocked is published as the {@code client.blocked_time}
+   * distribution.
+   */
+  public OkHttpClientLimiterBuilder blockOnLimit(Duration maxWait) {
+    this.maxBlockingWait = maxWait;
     return this;
   }
 
@@ -55,8 +92,8 @@ public class OkHttpClientLimiterBuilder extends AbstractPartitionedLimiter.Build
   public Limiter<OkhttpClientRequestContext> build() {
     Limiter<OkhttpClientRequestContext> limiter = super.build();
 
-    if (blockOnLimit) {
-      limiter = BlockingLimiter.wrap(limiter);
+    if (maxBlockingWait != null) {
+      limiter = new TimeoutBlockingLimiter(limiter, maxBlockingWait.toNanos(), registry);
     }
     return limiter;
   }
@@ -29,11 +29,25 @@ public class OkhttpClientRequestContext {
 
   private final Request request;
 
+  private final long timeoutNanos;
+
   public OkhttpClientRequestContext(Request request) {
+    this(request, 0);
+  }
+
+  /**
+   * @param timeoutNanos the longest the call may wait for a permit, usually its call or read timeout; 0 for no bound
+   */
+  public OkhttpClientRequestContext(Request request, long timeoutNanos) {
     this.request = request;
+    this.timeoutNanos = timeoutNanos;
   }
 
   Request request() {
     return request;
   }
+
+  long timeoutNanos() {
+    return timeoutNanos;
+  }
 }
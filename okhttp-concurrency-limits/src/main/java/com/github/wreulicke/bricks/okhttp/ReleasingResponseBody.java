@@ -0,0 +1,117 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import com.netflix.concurrency.limits.Limiter;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Holds the permit until the body has been read to the end, so that the limiter samples the whole transfer. A body
+ * closed before its end or failing while being read releases the permit with onIgnore.
+ */
+class ReleasingResponseBody extends ResponseBody {
+
+  private final ResponseBody delegate;
+
+  private final Limiter.Listener listener;
+
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  private BufferedSource source;
+
+  ReleasingResponseBody(ResponseBody delegate, Limiter.Listener listener) {
+    this.delegate = delegate;
+    this.listener = listener;
+  }
+
+  @Override
+  public MediaType contentType() {
+    return delegate.contentType();
+  }
+
+  @Override
+  public long contentLength() {
+    return delegate.contentLength();
+  }
+
+  @Override
+  public synchronized BufferedSource source() {
+    if (source == null) {
+      source = Okio.buffer(new ForwardingSource(delegate.source()) {
+
+        private long bytesRead;
+
+        private boolean exhausted;
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+          long read;
+          try {
+            read = super.read(sink, byteCount);
+          } catch (IOException e) {
+            release(Limiter.Listener::onIgnore);
+            throw e;
+          }
+          if (read == -1) {
+            exhausted = true;
+            release(Limiter.Listener::onSuccess);
+          }
+          else {
+            bytesRead += read;
+          }
+          return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+          long contentLength = delegate.contentLength();
+          if (exhausted || contentLength == bytesRead) {
+            release(Limiter.Listener::onSuccess);
+          }
+          else {
+            release(Limiter.Listener::onIgnore);
+          }
+          super.close();
+        }
+      });
+    }
+    return source;
+  }
+
+  private void release(Consumer<Limiter.Listener> outcome) {
+    if (released.compareAndSet(false, true)) {
+      outcome.accept(listener);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Remembers the {@code Retry-After} of overload responses per partition, the host by default, and rejects further
+ * requests to that partition locally until the deadline has passed. Which status codes count as overload is
+ * configurable; overload responses are reported to the limiter as drops whether or not they carry
+ * {@code Retry-After}.
+ */
+public class RetryAfterBackoff {
+
+  public static final IntPredicate DEFAULT_OVERLOAD_STATUS = code -> code == 429 || code == 503;
+
+  private static final int PRUNE_THRESHOLD = 1024;
+
+  private final IntPredicate overloadStatus;
+
+  private final long maxBackoffNanos;
+
+  private final Function<Request, String> partitionResolver;
+
+  private final ConcurrentMap<String, Long> deadlines = new ConcurrentHashMap<>();
+
+  public RetryAfterBackoff() {
+    this(DEFAULT_OVERLOAD_STATUS, Duration.ofMinutes(5));
+  }
+
+  public RetryAfterBackoff(IntPredicate overloadStatus, Duration maxBackoff) {
+    this(overloadStatus, maxBackoff, request -> request.url()
+      .host());
+  }
+
+  public RetryAfterBackoff(IntPredicate overloadStatus, Duration maxBackoff, Function<Request, String> partitionResolver) {
+    this.overloadStatus = overloadStatus;
+    this.maxBackoffNanos = maxBackoff.toNanos();
+    this.partitionResolver = partitionResolver;
+  }
+
+  boolean isOverloaded(int code) {
+    return overloadStatus.test(code);
+  }
+
+  /**
+   * @return the remaining backoff of the request's partition in nanoseconds, or 0 if requests may be sent
+   */
+  long remainingNanos(Request request) {
+    String key = partitionResolver.apply(request);
+    Long deadline = key == null ? null : deadlines.get(key);
+    if (deadline == null) {
+      return 0;
+    }
+    long remaining = deadline - System.nanoTime();
+    if (remaining <= 0) {
+      deadlines.remove(key, deadline);
+      return 0;
+    }
+    return remaining;
+  }
+
+  void record(Request request, Response response) {
+    if (!isOverloaded(response.code())) {
+      return;
+    }
+    String key = partitionResolver.apply(request);
+    long delay = retryAfterNanos(response.header("Retry-After"));
+    if (key == null || delay <= 0) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (deadlines.size() >= PRUNE_THRESHOLD) {
+      deadlines.values()
+        .removeIf(deadline -> deadline - now <= 0);
+    }
+    long deadline = now + Math.min(delay, maxBackoffNanos);
+    deadlines.merge(key, deadline, (current, next) -> next - current > 0 ? next : current);
+  }
+
+  /**
+   * Parses {@code Retry-After} given either as delay seconds or as an HTTP date.
+   */
+  private static long retryAfterNanos(String retryAfter) {
+    if (retryAfter == null) {
+      return -1;
+    }
+    try {
+      return TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.trim()));
+    } catch (NumberFormatException e) {
+      // not delay seconds
+    }
+    try {
+      ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+      return Duration.between(ZonedDateTime.now(date.getZone()), date)
+        .toNanos();
+    } catch (DateTimeParseException | ArithmeticException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Collapses concurrent identical GET and HEAD requests into a single network call. Requests are identical when their
+ * method, URL and the configured vary headers match. The first request proceeds and its response is buffered and handed
+ * to every request that arrived while it was in flight.
+ * <p>
+ * Add it before {@link OkHttpClientLimitInterceptor} so that only the leading request takes a permit. Responses larger
+ * than {@code maxBufferedBytes} are not shared, and neither are failures of the leading request; waiting requests then
+ * proceed on their own. A waiting request still gives up when its own call is cancelled or times out.
+ */
+public class SingleFlightInterceptor implements Interceptor {
+
+  private static final long CANCEL_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  private final List<String> varyHeaders;
+
+  private final long maxBufferedBytes;
+
+  private final ConcurrentMap<String, CompletableFuture<BufferedResponse>> inflight = new ConcurrentHashMap<>();
+
+  public SingleFlightInterceptor(long maxBufferedBytes) {
+    this(Collections.emptyList(), maxBufferedBytes);
+  }
+
+  public SingleFlightInterceptor(List<String> varyHeaders, long maxBufferedBytes) {
+    this.varyHeaders = varyHeaders;
+    this.maxBufferedBytes = maxBufferedBytes;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    if (!"GET".equals(request.method()) && !"HEAD".equals(request.method())) {
+      return chain.proceed(request);
+    }
+
+    String key = key(request);
+    CompletableFuture<BufferedResponse> flight = new CompletableFuture<>();
+    CompletableFuture<BufferedResponse> leader = inflight.putIfAbsent(key, flight);
+    if (leader != null) {
+      BufferedResponse shared = await(chain, leader);
+      if (shared == null) {
+        return chain.proceed(request);
+      }
+      return shared.copy(request);
+    }
+
+    try {
+      Response response = chain.proceed(request);
+      BufferedResponse buffered = buffer(response);
+      flight.complete(buffered);
+      return buffered == null ? response : buffered.copy(request);
+    } finally {
+      inflight.remove(key, flight);
+      // the failure may be the leader's own, such as its cancellation, so waiting requests retry rather than share it
+      flight.complete(null);
+    }
+  }
+
+  private String key(Request request) {
+    StringBuilder key = new StringBuilder(request.method()).append(' ')
+      .append(request.url());
+    for (String name : varyHeaders) {
+      key.append('\n')
+        .append(name)
+        .append(':')
+        .append(request.headers(name));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Reads the body into memory and closes the network response, or returns null if the body is larger than the cap, in
+   * which case the response is left unread. The response is closed if reading it fails.
+   */
+  private BufferedResponse buffer(Response response) throws IOException {
+    ResponseBody body = response.body();
+    if (body == null) {
+      return new BufferedResponse(response, null, null);
+    }
+    if (body.contentLength() > maxBufferedBytes) {
+      return null;
+    }
+    byte[] bytes;
+    try {
+      ResponseBody peeked = response.peekBody(maxBufferedBytes + 1);
+      if (peeked.contentLength() > maxBufferedBytes) {
+        return null;
+      }
+      bytes = peeked.bytes();
+    } catch (IOException | RuntimeException e) {
+      response.close();
+      throw e;
+    }
+    body.close();
+    return new BufferedResponse(response, body.contentType(), bytes);
+  }
+
+  /**
+   * Waits for the leading request, or returns null if it failed or its response is not shared. Fails when the call of
+   * the waiting request is cancelled, which is also how OkHttp enforces its call timeout.
+   */
+  private static BufferedResponse await(Chain chain, CompletableFuture<BufferedResponse> leader) throws IOException {
+    while (true) {
+      try {
+        return leader.get(CANCEL_CHECK_NANOS, TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        if (chain.call()
+          .isCanceled()) {
+          throw new IOException("Canceled");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread()
+          .interrupt();
+        throw new InterruptedIOException("interrupted while waiting for an identical request");
+      } catch (ExecutionException e) {
+        // not completed exceptionally by the leader
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+  }
+
+  private static class BufferedResponse {
+
+    private final Response response;
+
+    private final MediaType contentType;
+
+    private final byte[] bytes;
+
+    BufferedResponse(Response response, MediaType contentType, byte[] bytes) {
+      this.response = response;
+      this.contentType = contentType;
+      this.bytes = bytes;
+    }
+
+    Response copy(Request request) {
+      Response.Builder builder = response.newBuilder()
+        .request(request);
+      if (bytes != null) {
+        builder.body(ResponseBody.create(contentType, bytes));
+      }
+      return builder.build();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import java.util.Optional;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.MetricRegistry;
+
+/**
+ * Blocks the calling thread until a permit is released, for at most the maximum wait or the call's own timeout,
+ * whichever is shorter. The time callers spend blocked is published as the {@code client.blocked_time} distribution.
+ */
+class TimeoutBlockingLimiter implements Limiter<OkhttpClientRequestContext> {
+
+  private final Limiter<OkhttpClientRequestContext> delegate;
+
+  private final long maxWaitNanos;
+
+  private final MetricRegistry.SampleListener blockedTime;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition released = lock.newCondition();
+
+  TimeoutBlockingLimiter(Limiter<OkhttpClientRequestContext> delegate, long maxWaitNanos, MetricRegistry registry) {
+    this.delegate = delegate;
+    this.maxWaitNanos = maxWaitNanos;
+    this.blockedTime = registry.registerDistribution("client.blocked_time");
+  }
+
+  @Override
+  public Optional<Listener> acquire(OkhttpClientRequestContext context) {
+    long remaining = maxWaitNanos;
+    if (context.timeoutNanos() > 0) {
+      remaining = Math.min(remaining, context.timeoutNanos());
+    }
+
+    long start = System.nanoTime();
+    boolean blocked = false;
+    lock.lock();
+    try {
+      while (true) {
+        Optional<Listener> listenerOpt = delegate.acquire(context);
+        if (listenerOpt.isPresent()) {
+          return Optional.of(new SignallingListener(listenerOpt.get()));
+        }
+        if (remaining <= 0) {
+          return Optional.empty();
+        }
+        blocked = true;
+        try {
+          remaining = released.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread()
+            .interrupt();
+          return Optional.empty();
+        }
+      }
+    } finally {
+      lock.unlock();
+      if (blocked) {
+        blockedTime.addSample(System.nanoTime() - start);
+      }
+    }
+  }
+
+  private void signal() {
+    lock.lock();
+    try {
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private class SignallingListener implements Listener {
+
+    private final Listener delegate;
+
+    SignallingListener(Listener delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onSuccess() {
+      delegate.onSuccess();
+      signal();
+    }
+
+    @Override
+    public void onIgnore() {
+      delegate.onIgnore();
+      signal();
+    }
+
+    @Override
+    public void onDropped() {
+      delegate.onDropped();
+      signal();
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+class HedgingInterceptorTest {
+
+  private static final int WARM_UP_REQUESTS = 20;
+
+  private final FakeBackend backend = new FakeBackend();
+
+  private final OkHttpClient attemptClient = new OkHttpClient.Builder().addInterceptor(backend)
+    .build();
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @AfterEach
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void requestIsNotHedgedUntilHostHasEnoughSamples() throws IOException {
+    OkHttpClient client = client(() -> true);
+    backend.reply(200, 200, "primary");
+
+    try (Response response = execute(client)) {
+      assertThat(response.body()
+        .string()).isEqualTo("primary");
+    }
+    assertThat(backend.attempts.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void slowPrimaryIsHedgedAndCancelled() throws IOException {
+    OkHttpClient client = client(() -> true);
+    warmUp(client);
+    backend.reply(5_000, 200, "primary");
+    backend.reply(0, 200, "hedge");
+
+    long start = System.nanoTime();
+    try (Response response = execute(client)) {
+      assertThat(response.body()
+        .string()).isEqualTo("hedge");
+    }
+
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+    assertThat(backend.awaitCancelled(1)).isTrue();
+  }
+
+  @Test
+  public void noHedgeIsSentWithoutSparePermits() throws IOException {
+    OkHttpClient client = client(() -> false);
+    warmUp(client);
+    backend.reply(300, 200, "primary");
+
+    try (Response response = execute(client)) {
+      assertThat(response.body()
+        .string()).isEqualTo("primary");
+    }
+    assertThat(backend.attempts.get()).isEqualTo(WARM_UP_REQUESTS + 1);
+  }
+
+  @Test
+  public void localRejectionOfHedgeDoesNotBeatPrimary() throws IOException {
+    OkHttpClient client = client(() -> true);
+    warmUp(client);
+    backend.reply(300, 200, "primary");
+    backend.reply(0, LimiterResponses::limitReached);
+
+    try (Response response = execute(client)) {
+      assertThat(response.code()).isEqualTo(200);
+      assertThat(response.body()
+        .string()).isEqualTo("primary");
+    }
+  }
+
+  @Test
+  public void fastServerErrorDoesNotBeatSlowSuccess() throws IOException {
+    OkHttpClient client = client(() -> true);
+    warmUp(client);
+    backend.reply(300, 200, "primary");
+    backend.reply(0, 500, "hedge");
+
+    try (Response response = execute(client)) {
+      assertThat(response.body()
+        .string()).isEqualTo("primary");
+    }
+  }
+
+  @Test
+  public void serverErrorIsPreferredOverLocalRejectionWhenNeitherSucceeds() throws IOException {
+    OkHttpClient client = client(() -> true);
+    warmUp(client);
+    backend.reply(300, 500, "primary");
+    backend.reply(0, LimiterResponses::limitReached);
+
+    try (Response response = execute(client)) {
+      assertThat(response.code()).isEqualTo(500);
+      assertThat(LimiterResponses.isLocalRejection(response)).isFalse();
+    }
+  }
+
+  @Test
+  public void cancellingTheCallCancelsBothAttempts() {
+    OkHttpClient client = client(() -> true);
+    warmUp(client);
+    backend.reply(5_000, 200, "primary");
+    backend.reply(5_000, 200, "hedge");
+
+    Call call = client.newCall(request());
+    scheduler.schedule(call::cancel, 300, TimeUnit.MILLISECONDS);
+
+    assertThatThrownBy(call::execute).isInstanceOf(IOException.class);
+    assertThat(backend.awaitCancelled(2)).isTrue();
+  }
+
+  private OkHttpClient client(BooleanSupplier hasSparePermits) {
+    return new OkHttpClient.Builder().addInterceptor(new HedgingInterceptor(attemptClient, hasSparePermits, 0.95))
+      .build();
+  }
+
+  private void warmUp(OkHttpClient client) {
+    for (int i = 0; i < WARM_UP_REQUESTS; i++) {
+      try (Response response = execute(client)) {
+        assertThat(response.code()).isEqualTo(200);
+      }
+    }
+  }
+
+  private static Response execute(OkHttpClient client) {
+    try {
+      return client.newCall(request())
+        .execute();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static Request request() {
+    return new Request.Builder().url("http://backend.test/items")
+      .build();
+  }
+
+  /**
+   * Answers each attempt with the next scripted reply after its delay, or with an immediate 200 when nothing is
+   * scripted. A delayed attempt notices cancellation of its call.
+   */
+  private static class FakeBackend implements Interceptor {
+
+    private final Queue<Reply> replies = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private final AtomicInteger cancelled = new AtomicInteger();
+
+    void reply(long delayMillis, int code, String body) {
+      reply(delayMillis, request -> response(request, code, body));
+    }
+
+    void reply(long delayMillis, Function<Request, Response> response) {
+      replies.add(new Reply(delayMillis, response));
+    }
+
+    boolean awaitCancelled(int count) {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (cancelled.get() < count && System.nanoTime() < deadline) {
+        Thread.yield();
+      }
+      return cancelled.get() >= count;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      attempts.incrementAndGet();
+      Reply reply = replies.poll();
+      if (reply == null) {
+        reply = new Reply(0, request -> response(request, 200, "warm-up"));
+      }
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reply.delayMillis);
+      while (System.nanoTime() < deadline) {
+        if (chain.call()
+          .isCanceled()) {
+          cancelled.incrementAndGet();
+          throw new IOException("Canceled");
+        }
+        sleep();
+      }
+      return reply.response.apply(chain.request());
+    }
+
+    private static Response response(Request request, int code, String body) {
+      return new Response.Builder().code(code)
+        .protocol(Protocol.HTTP_1_1)
+        .request(request)
+        .message("fake")
+        .body(ResponseBody.create(null, body))
+        .build();
+    }
+
+    private static void sleep() throws IOException {
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread()
+          .interrupt();
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private static class Reply {
+
+    private final long delayMillis;
+
+    private final Function<Request, Response> response;
+
+    Reply(long delayMillis, Function<Request, Response> response) {
+      this.delayMillis = delayMillis;
+      this.response = response;
+    }
+  }
+}
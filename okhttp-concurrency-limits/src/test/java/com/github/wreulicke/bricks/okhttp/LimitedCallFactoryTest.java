@@ -0,0 +1,346 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Timeout;
+
+class LimitedCallFactoryTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void queuedCallIsDispatchedWhenPermitIsReleased() throws Exception {
+    FakeCallFactory delegate = new FakeCallFactory(0);
+    LimitedCallFactory sut = new LimitedCallFactory(delegate, limiter(1), 10);
+    RecordingCallback first = new RecordingCallback();
+    RecordingCallback second = new RecordingCallback();
+
+    sut.newCall(request())
+      .enqueue(first);
+    sut.newCall(request())
+      .enqueue(second);
+
+    assertThat(delegate.enqueued.size()).isEqualTo(1);
+    assertThat(sut.getQueuedCallCount()).isEqualTo(1);
+
+    delegate.enqueued.get(0)
+      .respond(200);
+
+    assertThat(first.await()).isEqualTo(200);
+    assertThat(delegate.enqueued.size()).isEqualTo(2);
+    assertThat(sut.getQueuedCallCount()).isZero();
+    delegate.enqueued.get(1)
+      .respond(200);
+    assertThat(second.await()).isEqualTo(200);
+  }
+
+  @Test
+  public void callIsRejectedWhenQueueIsFull() throws Exception {
+    FakeCallFactory delegate = new FakeCallFactory(0);
+    LimitedCallFactory sut = new LimitedCallFactory(delegate, limiter(1), 1);
+    RecordingCallback rejected = new RecordingCallback();
+
+    sut.newCall(request())
+      .enqueue(new RecordingCallback());
+    sut.newCall(request())
+      .enqueue(new RecordingCallback());
+    sut.newCall(request())
+      .enqueue(rejected);
+
+    assertThat(rejected.await()).isEqualTo(503);
+    assertThat(delegate.enqueued.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void queuedCallTimesOutAfterItsCallTimeout() throws Exception {
+    FakeCallFactory delegate = new FakeCallFactory(100);
+    LimitedCallFactory sut = new LimitedCallFactory(delegate, limiter(1), 10);
+    RecordingCallback queued = new RecordingCallback();
+
+    sut.newCall(request())
+      .enqueue(new RecordingCallback());
+    sut.newCall(request())
+      .enqueue(queued);
+
+    assertThat(queued.await()).isEqualTo(503);
+    assertThat(sut.getQueuedCallCount()).isZero();
+    assertThat(delegate.enqueued.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void cancelledQueuedCallLeavesQueue() throws Exception {
+    FakeCallFactory delegate = new FakeCallFactory(0);
+    LimitedCallFactory sut = new LimitedCallFactory(delegate, limiter(1), 10);
+    RecordingCallback queued = new RecordingCallback();
+
+    sut.newCall(request())
+      .enqueue(new RecordingCallback());
+    Call call = sut.newCall(request());
+    call.enqueue(queued);
+    call.cancel();
+
+    assertThat(queued.await()).isEqualTo(-1);
+    assertThat(sut.getQueuedCallCount()).isZero();
+    delegate.enqueued.get(0)
+      .respond(200);
+    assertThat(delegate.enqueued.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void callOfAnotherPartitionIsNotStuckBehindQueuedCalls() throws Exception {
+    FakeCallFactory delegate = new FakeCallFactory(0);
+    Limiter<OkhttpClientRequestContext> limiter = new OkHttpClientLimiterBuilder().partitionByHost()
+      .partition("a", 0.5)
+      .partition("b", 0.5)
+      .limit(FixedLimit.of(4))
+      .build();
+    LimitedCallFactory sut = new LimitedCallFactory(delegate, limiter, 10);
+
+    for (int i = 0; i < 5; i++) {
+      sut.newCall(request("a"))
+        .enqueue(new RecordingCallback());
+    }
+    sut.newCall(request("b"))
+      .enqueue(new RecordingCallback());
+    sut.newCall(request("b"))
+      .enqueue(new RecordingCallback());
+
+    assertThat(delegate.enqueued.size()).isEqualTo(6);
+    assertThat(sut.getQueuedCallCount()).isEqualTo(1);
+
+    RecordingCallback queued = new RecordingCallback();
+    sut.newCall(request("b"))
+      .enqueue(queued);
+    assertThat(sut.getQueuedCallCount()).isEqualTo(2);
+
+    // frees a permit of partition b only; the queued call of partition a stays ahead of it
+    delegate.enqueued.get(4)
+      .respond(200);
+
+    assertThat(delegate.enqueued.size()).isEqualTo(7);
+    assertThat(delegate.enqueued.get(6)
+      .request()
+      .url()
+      .host()).isEqualTo("b");
+    assertThat(sut.getQueuedCallCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void everyQueuedCallCompletesUnderContention() throws Exception {
+    FakeCallFactory delegate = new FakeCallFactory(0);
+    delegate.respondOn = executor;
+    LimitedCallFactory sut = new LimitedCallFactory(delegate, limiter(2), 1000);
+    int calls = 500;
+    CountDownLatch completed = new CountDownLatch(calls);
+    AtomicInteger rejected = new AtomicInteger();
+
+    for (int i = 0; i < calls; i++) {
+      executor.execute(() -> sut.newCall(request())
+        .enqueue(new Callback() {
+
+          @Override
+          public void onFailure(Call call, IOException e) {
+            completed.countDown();
+          }
+
+          @Override
+          public void onResponse(Call call, Response response) {
+            if (response.code() != 200) {
+              rejected.incrementAndGet();
+            }
+            completed.countDown();
+          }
+        }));
+    }
+
+    assertThat(completed.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(rejected.get()).isZero();
+  }
+
+  private static Limiter<OkhttpClientRequestContext> limiter(int limit) {
+    return SimpleLimiter.newBuilder()
+      .limit(FixedLimit.of(limit))
+      .build();
+  }
+
+  private static Request request() {
+    return request("localhost");
+  }
+
+  private static Request request(String host) {
+    return new Request.Builder().url("http://" + host + "/")
+      .build();
+  }
+
+  private static Response response(Request request, int code) {
+    return new Response.Builder().request(request)
+      .protocol(Protocol.HTTP_1_1)
+      .code(code)
+      .message("test")
+      .body(ResponseBody.create(null, new byte[0]))
+      .build();
+  }
+
+  static class RecordingCallback implements Callback {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private volatile int code;
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+      code = -1;
+      latch.countDown();
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+      code = response.code();
+      latch.countDown();
+    }
+
+    int await() throws InterruptedException {
+      assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+      return code;
+    }
+  }
+
+  static class FakeCallFactory implements Call.Factory {
+
+    private final List<FakeCall> enqueued = new CopyOnWriteArrayList<>();
+
+    private final long timeoutMillis;
+
+    private volatile ExecutorService respondOn;
+
+    FakeCallFactory(long timeoutMillis) {
+      this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Call newCall(Request request) {
+      return new FakeCall(request);
+    }
+
+    class FakeCall implements Call {
+
+      private final Request request;
+
+      private final Timeout timeout = new Timeout();
+
+      private volatile Callback callback;
+
+      private volatile boolean canceled;
+
+      FakeCall(Request request) {
+        this.request = request;
+        timeout.timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+      }
+
+      void respond(int code) throws IOException {
+        callback.onResponse(this, response(request, code));
+      }
+
+      @Override
+      public Request request() {
+        return request;
+      }
+
+      @Override
+      public Response execute() {
+        return response(request, 200);
+      }
+
+      @Override
+      public void enqueue(Callback responseCallback) {
+        this.callback = responseCallback;
+        enqueued.add(this);
+        ExecutorService respondOn = FakeCallFactory.this.respondOn;
+        if (respondOn != null) {
+          respondOn.execute(() -> {
+            try {
+              respond(200);
+            } catch (IOException e) {
+              throw new IllegalStateException(e);
+            }
+          });
+        }
+      }
+
+      @Override
+      public void cancel() {
+        canceled = true;
+      }
+
+      @Override
+      public boolean isExecuted() {
+        return callback != null;
+      }
+
+      @Override
+      public boolean isCanceled() {
+        return canceled;
+      }
+
+      @Override
+      public Timeout timeout() {
+        return timeout;
+      }
+
+      @Override
+      public Call clone() {
+        return new FakeCall(request);
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.netflix.concurrency.limits.Limiter;
+
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+class ReleasingResponseBodyTest {
+
+  private final RecordingListener listener = new RecordingListener();
+
+  @Test
+  public void successIsRecordedOnceBodyIsReadToTheEnd() throws IOException {
+    ResponseBody sut = new ReleasingResponseBody(body(5, -1), listener);
+
+    assertThat(sut.source()
+      .readUtf8()).isEqualTo("aaaaa");
+    assertThat(listener.successes).isEqualTo(1);
+
+    sut.close();
+    assertThat(listener.successes).isEqualTo(1);
+    assertThat(listener.ignores).isZero();
+  }
+
+  @Test
+  public void successIsRecordedWhenClosedAfterContentLengthIsRead() throws IOException {
+    ResponseBody sut = new ReleasingResponseBody(body(5, 5), listener);
+
+    sut.source()
+      .readByte();
+    sut.close();
+
+    assertThat(listener.successes).isEqualTo(1);
+    assertThat(listener.ignores).isZero();
+  }
+
+  @Test
+  public void permitIsIgnoredWhenClosedBeforeTheEnd() throws IOException {
+    ResponseBody sut = new ReleasingResponseBody(body(100_000, 100_000), listener);
+
+    sut.source()
+      .readByte();
+    sut.close();
+
+    assertThat(listener.successes).isZero();
+    assertThat(listener.ignores).isEqualTo(1);
+  }
+
+  @Test
+  public void permitIsIgnoredWhenClosedWithoutReading() {
+    ResponseBody sut = new ReleasingResponseBody(body(5, 5), listener);
+
+    sut.close();
+    sut.close();
+
+    assertThat(listener.successes).isZero();
+    assertThat(listener.ignores).isEqualTo(1);
+  }
+
+  @Test
+  public void permitIsIgnoredWhenReadFails() {
+    ResponseBody sut = new ReleasingResponseBody(ResponseBody.create(null, -1, Okio.buffer(new FailingSource())),
+      listener);
+
+    assertThatThrownBy(() -> sut.source()
+      .readUtf8()).isInstanceOf(IOException.class);
+    sut.close();
+
+    assertThat(listener.successes).isZero();
+    assertThat(listener.ignores).isEqualTo(1);
+  }
+
+  private static ResponseBody body(int size, long contentLength) {
+    Buffer buffer = new Buffer();
+    for (int i = 0; i < size; i++) {
+      buffer.writeByte('a');
+    }
+    return ResponseBody.create(null, contentLength, buffer);
+  }
+
+  private static class RecordingListener implements Limiter.Listener {
+
+    private int successes;
+
+    private int ignores;
+
+    @Override
+    public void onSuccess() {
+      successes++;
+    }
+
+    @Override
+    public void onIgnore() {
+      ignores++;
+    }
+
+    @Override
+    public void onDropped() {
+      throw new AssertionError("unexpected onDropped");
+    }
+  }
+
+  private static class FailingSource implements Source {
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+      throw new IOException("connection reset");
+    }
+
+    @Override
+    public Timeout timeout() {
+      return Timeout.NONE;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,245 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.okhttp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+class SingleFlightInterceptorTest {
+
+  private static final int MAX_BUFFERED_BYTES = 16;
+
+  private final FakeBackend backend = new FakeBackend();
+
+  private final OkHttpClient client = new OkHttpClient.Builder()
+    .addInterceptor(new SingleFlightInterceptor(MAX_BUFFERED_BYTES))
+    .addInterceptor(backend)
+    .build();
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @AfterEach
+  public void tearDown() {
+    backend.gate.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void identicalRequestsShareOneResponse() throws Exception {
+    List<Future<String>> bodies = executeConcurrently(3);
+    backend.gate.countDown();
+
+    for (Future<String> body : bodies) {
+      assertThat(body.get(5, TimeUnit.SECONDS)).isEqualTo("shared");
+    }
+    assertThat(backend.attempts.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void responseLargerThanCapIsNotShared() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      backend.reply(request -> response(request, "larger than sixteen bytes"));
+    }
+    List<Future<String>> bodies = executeConcurrently(3);
+    backend.gate.countDown();
+
+    for (Future<String> body : bodies) {
+      assertThat(body.get(5, TimeUnit.SECONDS)).isEqualTo("larger than sixteen bytes");
+    }
+    assertThat(backend.attempts.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void waitingRequestsProceedOnTheirOwnWhenLeaderFails() throws Exception {
+    backend.reply(request -> {
+      throw new IOException("leader failed");
+    });
+    List<Future<String>> bodies = executeConcurrently(3);
+    backend.gate.countDown();
+
+    int failed = 0;
+    for (Future<String> body : bodies) {
+      try {
+        assertThat(body.get(5, TimeUnit.SECONDS)).isEqualTo("shared");
+      } catch (ExecutionException e) {
+        assertThat(e.getCause()).isInstanceOf(IOException.class);
+        failed++;
+      }
+    }
+    assertThat(failed).isEqualTo(1);
+  }
+
+  @Test
+  public void waitingRequestGivesUpAfterItsCallTimeout() throws Exception {
+    executor.submit(() -> execute(client));
+    backend.awaitAttempts(1);
+    OkHttpClient impatient = client.newBuilder()
+      .callTimeout(Duration.ofMillis(200))
+      .build();
+
+    long start = System.nanoTime();
+    assertThatThrownBy(() -> execute(impatient)).isInstanceOf(IOException.class);
+
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+    assertThat(backend.attempts.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void responseIsClosedWhenReadingItFails() throws Exception {
+    AtomicBoolean closed = new AtomicBoolean();
+    backend.reply(request -> failingResponse(request, closed));
+    backend.gate.countDown();
+
+    assertThatThrownBy(() -> execute(client)).isInstanceOf(IOException.class);
+    assertThat(closed.get()).isTrue();
+  }
+
+  /**
+   * Starts identical requests once the first has reached the backend, so that the others wait for it.
+   */
+  private List<Future<String>> executeConcurrently(int count) throws InterruptedException {
+    List<Future<String>> bodies = new ArrayList<>();
+    bodies.add(executor.submit(() -> execute(client)));
+    backend.awaitAttempts(1);
+    for (int i = 1; i < count; i++) {
+      bodies.add(executor.submit(() -> execute(client)));
+    }
+    // let the others reach the interceptor before the backend is opened
+    Thread.sleep(200);
+    return bodies;
+  }
+
+  private static String execute(OkHttpClient client) throws IOException {
+    try (Response response = client.newCall(new Request.Builder().url("http://backend.test/items")
+      .build())
+      .execute()) {
+      return response.body()
+        .string();
+    }
+  }
+
+  private static Response response(Request request, String body) {
+    return response(request, ResponseBody.create(null, body));
+  }
+
+  private static Response response(Request request, ResponseBody body) {
+    return new Response.Builder().code(200)
+      .protocol(Protocol.HTTP_1_1)
+      .request(request)
+      .message("fake")
+      .body(body)
+      .build();
+  }
+
+  private static Response failingResponse(Request request, AtomicBoolean closed) {
+    BufferedSource source = Okio.buffer(new ForwardingSource(new Buffer()) {
+
+      @Override
+      public long read(Buffer sink, long byteCount) throws IOException {
+        throw new IOException("connection reset");
+      }
+
+      @Override
+      public void close() throws IOException {
+        closed.set(true);
+        super.close();
+      }
+    });
+    return response(request, ResponseBody.create((MediaType) null, -1, source));
+  }
+
+  /**
+   * Answers each attempt with the next scripted reply, or with a small body when nothing is scripted, once the gate is
+   * open.
+   */
+  private static class FakeBackend implements Interceptor {
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    private final Queue<Reply> replies = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    void reply(Reply reply) {
+      replies.add(reply);
+    }
+
+    void awaitAttempts(int count) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (attempts.get() < count && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      assertThat(attempts.get()).isGreaterThanOrEqualTo(count);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      attempts.incrementAndGet();
+      Reply reply = replies.poll();
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread()
+          .interrupt();
+        throw new IOException(e);
+      }
+      return reply == null ? response(chain.request(), "shared") : reply.apply(chain.request());
+    }
+  }
+
+  private interface Reply {
+
+    Response apply(Request request) throws IOException;
+  }
+}
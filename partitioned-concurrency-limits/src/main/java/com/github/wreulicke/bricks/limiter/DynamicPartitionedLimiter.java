@@ -0,0 +1,224 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.limiter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import com.netflix.concurrency.limits.Limit;
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limit.VegasLimit;
+
+/**
+ * Gives every partition key, such as a host, its own adaptive limit, created the first time the key is seen. The
+ * number of live partitions is capped: when a new key arrives at the cap, the least recently used idle partitions are
+ * evicted. New partitions start from the current value of an aggregate limit which learns from every partition.
+ */
+public class DynamicPartitionedLimiter<ContextT> implements Limiter<ContextT> {
+
+  private final Function<ContextT, String> partitionResolver;
+
+  private final IntFunction<Limit> limitFactory;
+
+  private final Limit aggregateLimit;
+
+  private final int maxPartitions;
+
+  private final Map<String, Partition> partitions = new LinkedHashMap<>(16, 0.75f, true);
+
+  private DynamicPartitionedLimiter(Builder<ContextT> builder) {
+    this.partitionResolver = builder.partitionResolver;
+    this.limitFactory = builder.limitFactory;
+    this.aggregateLimit = builder.aggregateLimit;
+    this.maxPartitions = builder.maxPartitions;
+  }
+
+  public static <ContextT> Builder<ContextT> newBuilder() {
+    return new Builder<>();
+  }
+
+  /**
+   * Looks the partition up and takes its permit under the lock, so that a partition cannot be evicted between being
+   * found and counting the call as in flight.
+   */
+  @Override
+  public Optional<Listener> acquire(ContextT context) {
+    String key = partitionKey(context);
+    synchronized (this) {
+      Partition partition = partitions.get(key);
+      if (partition != null) {
+        return partition.acquire();
+      }
+      partition = new Partition(limitFactory.apply(Math.max(1, aggregateLimit.getLimit())));
+      partitions.put(key, partition);
+      Optional<Listener> listener = partition.acquire();
+      evictIdle();
+      return listener;
+    }
+  }
+
+  /**
+   * @return the key of the partition {@code context} is limited by
+   */
+  public String partitionKey(ContextT context) {
+    String key = partitionResolver.apply(context);
+    return key == null ? "" : key;
+  }
+
+  /**
+   * Iterates from the least recently used partition. Busy partitions are kept, so the cap can be exceeded while every
+   * partition has calls in flight.
+   */
+  private void evictIdle() {
+    Iterator<Partition> iterator = partitions.values()
+      .iterator();
+    while (partitions.size() > maxPartitions && iterator.hasNext()) {
+      if (iterator.next().inflight.get() == 0) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the limit minus the calls in flight of the partition, or the limit a new partition would be seeded with
+   */
+  public synchronized int getAvailablePermits(String key) {
+    Partition partition = partitions.get(key);
+    if (partition == null) {
+      return Math.max(1, aggregateLimit.getLimit());
+    }
+    return partition.limit.getLimit() - partition.inflight.get();
+  }
+
+  public synchronized int getPartitionCount() {
+    return partitions.size();
+  }
+
+  private class Partition {
+
+    private final Limit limit;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    Partition(Limit limit) {
+      this.limit = limit;
+    }
+
+    Optional<Listener> acquire() {
+      while (true) {
+        int current = inflight.get();
+        if (current >= limit.getLimit()) {
+          return Optional.empty();
+        }
+        if (inflight.compareAndSet(current, current + 1)) {
+          return Optional.of(new PartitionListener(this, System.nanoTime(), current + 1));
+        }
+      }
+    }
+  }
+
+  private class PartitionListener implements Listener {
+
+    private final Partition partition;
+
+    private final long startTime;
+
+    private final int inflight;
+
+    PartitionListener(Partition partition, long startTime, int inflight) {
+      this.partition = partition;
+      this.startTime = startTime;
+      this.inflight = inflight;
+    }
+
+    @Override
+    public void onSuccess() {
+      sample(false);
+    }
+
+    @Override
+    public void onIgnore() {
+      partition.inflight.decrementAndGet();
+    }
+
+    @Override
+    public void onDropped() {
+      sample(true);
+    }
+
+    private void sample(boolean didDrop) {
+      partition.inflight.decrementAndGet();
+      long rtt = System.nanoTime() - startTime;
+      partition.limit.onSample(startTime, rtt, inflight, didDrop);
+      aggregateLimit.onSample(startTime, rtt, inflight, didDrop);
+    }
+  }
+
+  public static class Builder<ContextT> {
+
+    private Function<ContextT, String> partitionResolver;
+
+    private IntFunction<Limit> limitFactory = initialLimit -> VegasLimit.newBuilder()
+      .initialLimit(initialLimit)
+      .build();
+
+    private Limit aggregateLimit = VegasLimit.newDefault();
+
+    private int maxPartitions = 1000;
+
+    public Builder<ContextT> partitionResolver(Function<ContextT, String> partitionResolver) {
+      this.partitionResolver = partitionResolver;
+      return this;
+    }
+
+    /**
+     * Creates the limit of a new partition from the initial limit it is seeded with.
+     */
+    public Builder<ContextT> limit(IntFunction<Limit> limitFactory) {
+      this.limitFactory = limitFactory;
+      return this;
+    }
+
+    public Builder<ContextT> aggregateLimit(Limit aggregateLimit) {
+      this.aggregateLimit = aggregateLimit;
+      return this;
+    }
+
+    public Builder<ContextT> maxPartitions(int maxPartitions) {
+      this.maxPartitions = maxPartitions;
+      return this;
+    }
+
+    public DynamicPartitionedLimiter<ContextT> build() {
+      Objects.requireNonNull(partitionResolver, "partitionResolver");
+      return new DynamicPartitionedLimiter<>(this);
+    }
+  }
+}
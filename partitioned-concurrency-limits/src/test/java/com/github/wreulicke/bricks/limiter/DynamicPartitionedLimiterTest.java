@@ -0,0 +1,84 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.limiter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+
+class DynamicPartitionedLimiterTest {
+
+  private static final int SEED_LIMIT = 5;
+
+  private final DynamicPartitionedLimiter<String> sut = DynamicPartitionedLimiter.<String> newBuilder()
+    .partitionResolver(Function.identity())
+    .limit(initialLimit -> FixedLimit.of(1))
+    .aggregateLimit(FixedLimit.of(SEED_LIMIT))
+    .maxPartitions(2)
+    .build();
+
+  @Test
+  public void leastRecentlyUsedIdlePartitionIsEvictedAtCap() {
+    release(sut.acquire("a"));
+    release(sut.acquire("b"));
+    release(sut.acquire("a"));
+
+    release(sut.acquire("c"));
+
+    assertThat(sut.getPartitionCount()).isEqualTo(2);
+    assertThat(sut.getAvailablePermits("a")).isEqualTo(1);
+    // an evicted partition reports the limit it would be seeded with again
+    assertThat(sut.getAvailablePermits("b")).isEqualTo(SEED_LIMIT);
+  }
+
+  @Test
+  public void busyPartitionIsKeptPastCap() {
+    Optional<Limiter.Listener> a = sut.acquire("a");
+    Optional<Limiter.Listener> b = sut.acquire("b");
+    Optional<Limiter.Listener> c = sut.acquire("c");
+
+    assertThat(sut.getPartitionCount()).isEqualTo(3);
+    assertThat(sut.acquire("a")
+      .isPresent()).isFalse();
+
+    release(a);
+    release(b);
+    release(c);
+    release(sut.acquire("d"));
+
+    assertThat(sut.getPartitionCount()).isEqualTo(2);
+  }
+
+  private static void release(Optional<Limiter.Listener> listener) {
+    assertThat(listener.isPresent()).isTrue();
+    listener.get()
+      .onSuccess();
+  }
+}
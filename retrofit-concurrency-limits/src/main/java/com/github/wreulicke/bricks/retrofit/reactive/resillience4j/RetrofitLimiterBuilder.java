@@ -23,6 +23,7 @@
  */
 package com.github.wreulicke.bricks.retrofit.reactive.resillience4j;
 
+import com.github.wreulicke.bricks.limiter.DynamicPartitionedLimiter;
 import com.netflix.concurrency.limits.limiter.AbstractPartitionedLimiter;
 
 public class RetrofitLimiterBuilder extends AbstractPartitionedLimiter.Builder<RetrofitLimiterBuilder, RetrofitContext> {
@@ -38,6 +39,27 @@ public class RetrofitLimiterBuilder extends AbstractPartitionedLimiter.Builder<R
       .header(headerName));
   }
 
+  /**
+   * Creates a limiter with an adaptive limit per host, bounded to {@code maxPartitions} live hosts.
+   */
+  public static DynamicPartitionedLimiter.Builder<RetrofitContext> dynamicPartitionByHost(int maxPartitions) {
+    return DynamicPartitionedLimiter.<RetrofitContext> newBuilder()
+      .partitionResolver(context -> context.getRequest()
+        .url()
+        .host())
+      .maxPartitions(maxPartitions);
+  }
+
+  /**
+   * Creates a limiter with an adaptive limit per header value, bounded to {@code maxPartitions} live values.
+   */
+  public static DynamicPartitionedLimiter.Builder<RetrofitContext> dynamicPartitionByHeaderName(String headerName, int maxPartitions) {
+    return DynamicPartitionedLimiter.<RetrofitContext> newBuilder()
+      .partitionResolver(context -> context.getRequest()
+        .header(headerName))
+      .maxPartitions(maxPartitions);
+  }
+
   @Override
   protected RetrofitLimiterBuilder self() {
     return this;
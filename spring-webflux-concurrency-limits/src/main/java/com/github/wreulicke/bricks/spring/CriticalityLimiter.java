@@ -0,0 +1,77 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.spring;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limiter.AbstractLimiter;
+
+/**
+ * Sheds less critical requests early. A request is rejected without asking the delegate once the delegate's inflight
+ * count reaches the threshold of its criticality, a fraction of the current limit. Criticalities without a threshold
+ * are only bounded by the limit itself.
+ */
+public class CriticalityLimiter implements Limiter<WebFluxContext> {
+
+  public static final Map<Criticality, Double> DEFAULT_THRESHOLDS;
+
+  static {
+    Map<Criticality, Double> thresholds = new EnumMap<>(Criticality.class);
+    thresholds.put(Criticality.DEFAULT, 0.9);
+    thresholds.put(Criticality.BACKGROUND, 0.7);
+    DEFAULT_THRESHOLDS = Collections.unmodifiableMap(thresholds);
+  }
+
+  private final AbstractLimiter<WebFluxContext> delegate;
+
+  private final Function<WebFluxContext, Criticality> criticalityResolver;
+
+  private final Map<Criticality, Double> thresholds;
+
+  public CriticalityLimiter(AbstractLimiter<WebFluxContext> delegate, Function<WebFluxContext, Criticality> criticalityResolver) {
+    this(delegate, criticalityResolver, DEFAULT_THRESHOLDS);
+  }
+
+  public CriticalityLimiter(AbstractLimiter<WebFluxContext> delegate, Function<WebFluxContext, Criticality> criticalityResolver,
+    Map<Criticality, Double> thresholds) {
+    this.delegate = delegate;
+    this.criticalityResolver = criticalityResolver;
+    this.thresholds = new EnumMap<>(Criticality.class);
+    this.thresholds.putAll(thresholds);
+  }
+
+  @Override
+  public Optional<Listener> acquire(WebFluxContext context) {
+    Double threshold = thresholds.get(criticalityResolver.apply(context));
+    if (threshold != null && delegate.getInflight() >= threshold * delegate.getLimit()) {
+      return Optional.empty();
+    }
+    return delegate.acquire(context);
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.spring;
+
+import java.util.function.Predicate;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Holds the permit until the response has been written, so that large and streaming bodies count as in flight.
+ */
+class LimitedServerResponse implements ServerResponse {
+
+  private final ServerResponse delegate;
+
+  private final LimiterPermit permit;
+
+  private final Predicate<ServerResponse> successResponse;
+
+  private volatile boolean writing;
+
+  LimitedServerResponse(ServerResponse delegate, LimiterPermit permit, Predicate<ServerResponse> successResponse) {
+    this.delegate = delegate;
+    this.permit = permit;
+    this.successResponse = successResponse;
+  }
+
+  @Override
+  public HttpStatus statusCode() {
+    return delegate.statusCode();
+  }
+
+  @Override
+  public HttpHeaders headers() {
+    return delegate.headers();
+  }
+
+  @Override
+  public MultiValueMap<String, ResponseCookie> cookies() {
+    return delegate.cookies();
+  }
+
+  /**
+   * Releases the permit when {@code response} is committed without this response being written, as when an outer
+   * filter replaces it.
+   */
+  void releaseUnlessWritten(ServerHttpResponse response) {
+    response.beforeCommit(() -> Mono.fromRunnable(() -> {
+      if (!writing) {
+        permit.ignore();
+      }
+    }));
+  }
+
+  @Override
+  public Mono<Void> writeTo(ServerWebExchange exchange, Context context) {
+    writing = true;
+    return delegate.writeTo(exchange, context)
+      .doFinally(signal -> {
+        if (signal == SignalType.ON_COMPLETE && successResponse.test(delegate)) {
+          permit.success();
+        }
+        else {
+          permit.ignore();
+        }
+      });
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.spring;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.netflix.concurrency.limits.Limiter;
+
+/**
+ * Releases a listener exactly once, whichever of the completion, error and cancel signals arrives first.
+ */
+final class LimiterPermit {
+
+  private final Limiter.Listener listener;
+
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  LimiterPermit(Limiter.Listener listener) {
+    this.listener = listener;
+  }
+
+  void success() {
+    if (released.compareAndSet(false, true)) {
+      listener.onSuccess();
+    }
+  }
+
+  void ignore() {
+    if (released.compareAndSet(false, true)) {
+      listener.onIgnore();
+    }
+  }
+}
@@ -0,0 +1,257 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.spring;
+
+import java.time.Duration;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.netflix.concurrency.limits.Limiter;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Lets requests that find the limit reached wait for a permit instead of being rejected immediately. Waiters are kept
+ * in a bounded, non-blocking queue; no thread is blocked while waiting. A waiter that does not get a permit within
+ * {@code maxWait}, or finds the queue full, is rejected.
+ * <p>
+ * A permit is usually released on the thread writing another request's response. WebFlux does not expose the event
+ * loop of the waiting request's own connection, so resumed waiters continue on {@code resumeOn} instead of running their
+ * handlers on that thread.
+ * <p>
+ * A new request always tries the limiter before it queues, since waiters may be refused by a partition it does not
+ * belong to. In LIFO order the most recent waiter is resumed first, so that during overload fresh requests are served
+ * while their clients are still waiting for them.
+ */
+public class ReactiveAdmissionQueue {
+
+  private final Limiter<WebFluxContext> limiter;
+
+  private final int maxWaiters;
+
+  private final long maxWaitNanos;
+
+  private final boolean lifo;
+
+  private final Scheduler timer;
+
+  private final Scheduler resumeOn;
+
+  private final Deque<Waiter> waiters = new ConcurrentLinkedDeque<>();
+
+  private final AtomicInteger waiterCount = new AtomicInteger();
+
+  private final AtomicInteger drainWip = new AtomicInteger();
+
+  public ReactiveAdmissionQueue(Limiter<WebFluxContext> limiter, int maxWaiters, Duration maxWait) {
+    this(limiter, maxWaiters, maxWait, false);
+  }
+
+  public ReactiveAdmissionQueue(Limiter<WebFluxContext> limiter, int maxWaiters, Duration maxWait, boolean lifo) {
+    this(limiter, maxWaiters, maxWait, lifo, Schedulers.parallel(), Schedulers.parallel());
+  }
+
+  /**
+   * @param timer rejects waiters whose maximum wait has elapsed
+   * @param resumeOn runs waiters that were granted a permit
+   */
+  public ReactiveAdmissionQueue(Limiter<WebFluxContext> limiter, int maxWaiters, Duration maxWait, boolean lifo, Scheduler timer,
+    Scheduler resumeOn) {
+    this.limiter = limiter;
+    this.maxWaiters = maxWaiters;
+    this.maxWaitNanos = maxWait.toNanos();
+    this.lifo = lifo;
+    this.timer = timer;
+    this.resumeOn = resumeOn;
+  }
+
+  /**
+   * @return a listener once a permit is granted, or an empty optional if the request was rejected
+   */
+  public Mono<Optional<Limiter.Listener>> acquire(WebFluxContext context) {
+    return Mono.defer(() -> {
+      Optional<Limiter.Listener> listenerOptional = limiter.acquire(context);
+      if (listenerOptional.isPresent()) {
+        return Mono.just(Optional.of(new DrainingListener(listenerOptional.get())));
+      }
+      return Mono.create(sink -> enqueue(new Waiter(context, sink)));
+    });
+  }
+
+  public int getWaiterCount() {
+    return waiterCount.get();
+  }
+
+  private void enqueue(Waiter waiter) {
+    if (waiterCount.incrementAndGet() > maxWaiters) {
+      waiterCount.decrementAndGet();
+      waiter.sink.success(Optional.empty());
+      return;
+    }
+    waiter.timeout = timer.schedule(waiter::expire, maxWaitNanos, TimeUnit.NANOSECONDS);
+    waiter.sink.onCancel(waiter::cancel);
+    waiters.offerLast(waiter);
+    // a permit may have been released before the waiter was queued
+    drain();
+  }
+
+  /**
+   * Offers a permit to every waiter in turn, newest first in LIFO order. A partitioned limiter such as
+   * {@link CriticalityLimiter} may refuse one waiter and admit the next, so a refused waiter stays queued without
+   * holding back the others. Draining is serialized; a call made while another thread drains, such as from a released
+   * permit, makes that thread scan once more, so no release is missed.
+   */
+  private void drain() {
+    if (drainWip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      Iterator<Waiter> iterator = lifo ? waiters.descendingIterator() : waiters.iterator();
+      while (iterator.hasNext()) {
+        Waiter waiter = iterator.next();
+        if (waiter.done.get()) {
+          iterator.remove();
+          continue;
+        }
+        Optional<Limiter.Listener> listenerOptional = limiter.acquire(waiter.context);
+        if (!listenerOptional.isPresent()) {
+          continue;
+        }
+        DrainingListener listener = new DrainingListener(listenerOptional.get());
+        if (waiter.resume(listener)) {
+          iterator.remove();
+        }
+        else {
+          listener.onIgnore();
+        }
+      }
+      missed = drainWip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private class Waiter {
+
+    private final WebFluxContext context;
+
+    private final MonoSink<Optional<Limiter.Listener>> sink;
+
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private final AtomicReference<Limiter.Listener> granted = new AtomicReference<>();
+
+    private volatile boolean cancelled;
+
+    private volatile Disposable timeout;
+
+    Waiter(WebFluxContext context, MonoSink<Optional<Limiter.Listener>> sink) {
+      this.context = context;
+      this.sink = sink;
+    }
+
+    boolean resume(Limiter.Listener listener) {
+      if (!done.compareAndSet(false, true)) {
+        return false;
+      }
+      waiterCount.decrementAndGet();
+      timeout.dispose();
+      granted.set(listener);
+      resumeOn.schedule(() -> {
+        sink.success(Optional.of(listener));
+        if (cancelled) {
+          releaseGranted();
+        }
+      });
+      return true;
+    }
+
+    void expire() {
+      if (done.compareAndSet(false, true)) {
+        waiterCount.decrementAndGet();
+        waiters.remove(this);
+        sink.success(Optional.empty());
+        drain();
+      }
+    }
+
+    /**
+     * The sink only reports a cancellation that came before its value was delivered, so a permit granted by then would
+     * be dropped with the value and is released here instead.
+     */
+    void cancel() {
+      if (done.compareAndSet(false, true)) {
+        waiterCount.decrementAndGet();
+        waiters.remove(this);
+        timeout.dispose();
+        return;
+      }
+      cancelled = true;
+      releaseGranted();
+    }
+
+    private void releaseGranted() {
+      Limiter.Listener listener = granted.getAndSet(null);
+      if (listener != null) {
+        listener.onIgnore();
+      }
+    }
+  }
+
+  private class DrainingListener implements Limiter.Listener {
+
+    private final Limiter.Listener delegate;
+
+    DrainingListener(Limiter.Listener delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onSuccess() {
+      delegate.onSuccess();
+      drain();
+    }
+
+    @Override
+    public void onIgnore() {
+      delegate.onIgnore();
+      drain();
+    }
+
+    @Override
+    public void onDropped() {
+      delegate.onDropped();
+      drain();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.spring;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+/**
+ * Finds which of a fixed set of route patterns a request belongs to, from the best matching pattern attribute once a
+ * handler is resolved, and otherwise by matching the path against the patterns, most specific first.
+ */
+class RouteMatcher {
+
+  private final Collection<String> routes;
+
+  private final List<PathPattern> patterns;
+
+  RouteMatcher(Collection<String> routes) {
+    PathPatternParser parser = new PathPatternParser();
+    this.routes = routes;
+    this.patterns = routes.stream()
+      .map(parser::parse)
+      .sorted(PathPattern.SPECIFICITY_COMPARATOR)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * @return the matching route, or null if the request matches none
+   */
+  String match(WebFluxContext webFluxContext) {
+    Object bestMatchingPattern = webFluxContext.getExchange()
+      .getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+    String route = bestMatchingPattern instanceof PathPattern ? ((PathPattern) bestMatchingPattern).getPatternString()
+      : bestMatchingPattern instanceof String ? (String) bestMatchingPattern : null;
+    if (route != null && routes.contains(route)) {
+      return route;
+    }
+    PathContainer path = webFluxContext.getExchange()
+      .getRequest()
+      .getPath()
+      .pathWithinApplication();
+    for (PathPattern pattern : patterns) {
+      if (pattern.matches(path)) {
+        return pattern.getPatternString();
+      }
+    }
+    return null;
+  }
+}
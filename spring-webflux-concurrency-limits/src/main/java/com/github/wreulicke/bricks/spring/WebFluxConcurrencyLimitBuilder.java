@@ -23,29 +23,101 @@
  */
 package com.github.wreulicke.bricks.spring;
 
+import java.util.Map;
+import java.util.function.Function;
+
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limiter.AbstractLimiter;
 import com.netflix.concurrency.limits.limiter.AbstractPartitionedLimiter;
 
 public class WebFluxConcurrencyLimitBuilder extends AbstractPartitionedLimiter.Builder<WebFluxConcurrencyLimitBuilder, WebFluxContext> {
 
+  public static final String DEFAULT_ROUTE_PARTITION = "default";
+
+  private Function<WebFluxContext, Criticality> criticalityResolver;
+
+  private Map<Criticality, Double> criticalityThresholds = CriticalityLimiter.DEFAULT_THRESHOLDS;
 
   public WebFluxConcurrencyLimitBuilder partitionByPath() {
-    return this.partitionResolver(webFluxContext -> webFluxContext.getRequest()
-      .uri()
+    return this.partitionResolver(webFluxContext -> webFluxContext.getExchange()
+      .getRequest()
+      .getURI()
       .getPath());
   }
 
+  /**
+   * Partitions by route pattern, such as {@code /users/{id}}, rather than by raw path. Each pattern of
+   * {@code routeWeights} gets a partition with its percentage of the limit. The pattern comes from the best matching
+   * pattern attribute once a handler is resolved, and otherwise from matching the path against the declared patterns,
+   * most specific first. Requests matching no declared pattern share the {@link #DEFAULT_ROUTE_PARTITION} partition.
+   */
+  public WebFluxConcurrencyLimitBuilder partitionByRoute(Map<String, Double> routeWeights, double defaultWeight) {
+    RouteMatcher routeMatcher = new RouteMatcher(routeWeights.keySet());
+    routeWeights.forEach(this::partition);
+    partition(DEFAULT_ROUTE_PARTITION, defaultWeight);
+
+    return this.partitionResolver(webFluxContext -> {
+      String route = routeMatcher.match(webFluxContext);
+      return route == null ? DEFAULT_ROUTE_PARTITION : route;
+    });
+  }
+
   public WebFluxConcurrencyLimitBuilder partitionByHeaderName(String headerName) {
-    return this.partitionResolver(webFluxContext -> webFluxContext.getRequest()
-      .headers()
-      .header(headerName)
-      .stream()
-      .findFirst()
-      .orElse(null));
+    return this.partitionResolver(webFluxContext -> webFluxContext.getExchange()
+      .getRequest()
+      .getHeaders()
+      .getFirst(headerName));
   }
 
 
+  /**
+   * Rejects less critical requests early, as described in {@link CriticalityLimiter}.
+   */
+  public WebFluxConcurrencyLimitBuilder shedByCriticality(Function<WebFluxContext, Criticality> criticalityResolver,
+    Map<Criticality, Double> thresholds) {
+    this.criticalityResolver = criticalityResolver;
+    this.criticalityThresholds = thresholds;
+    return this;
+  }
+
+  public WebFluxConcurrencyLimitBuilder shedByCriticality(Function<WebFluxContext, Criticality> criticalityResolver) {
+    return shedByCriticality(criticalityResolver, CriticalityLimiter.DEFAULT_THRESHOLDS);
+  }
+
+  /**
+   * Takes the criticality from a header naming one of {@link Criticality}, falling back to {@link Criticality#DEFAULT}.
+   */
+  public WebFluxConcurrencyLimitBuilder shedByCriticalityHeader(String headerName, Map<Criticality, Double> thresholds) {
+    return shedByCriticality(webFluxContext -> Criticality.parse(webFluxContext.getExchange()
+      .getRequest()
+      .getHeaders()
+      .getFirst(headerName)), thresholds);
+  }
+
+  /**
+   * Takes the criticality from the matched route pattern, falling back to {@link Criticality#DEFAULT}.
+   */
+  public WebFluxConcurrencyLimitBuilder shedByRouteCriticality(Map<String, Criticality> routeCriticalities,
+    Map<Criticality, Double> thresholds) {
+    RouteMatcher routeMatcher = new RouteMatcher(routeCriticalities.keySet());
+    return shedByCriticality(webFluxContext -> {
+      String route = routeMatcher.match(webFluxContext);
+      return route == null ? Criticality.DEFAULT : routeCriticalities.get(route);
+    }, thresholds);
+  }
+
   @Override
   protected WebFluxConcurrencyLimitBuilder self() {
     return this;
   }
+
+  @Override
+  public Limiter<WebFluxContext> build() {
+    Limiter<WebFluxContext> limiter = super.build();
+
+    if (criticalityResolver != null) {
+      limiter = new CriticalityLimiter((AbstractLimiter<WebFluxContext>) limiter, criticalityResolver, criticalityThresholds);
+    }
+    return limiter;
+  }
 }
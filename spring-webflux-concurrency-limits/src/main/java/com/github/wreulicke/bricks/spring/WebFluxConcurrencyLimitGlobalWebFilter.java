@@ -0,0 +1,123 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.spring;
+
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import com.netflix.concurrency.limits.Limiter;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Limits every request, including those to annotated controllers, before handler resolution and body decoding. The
+ * permit is held until the rest of the chain, which writes the response, has completed.
+ * <p>
+ * The filter runs before any functional route, so the {@link WebFluxContext} it passes to the limiter has no
+ * {@code ServerRequest}. Partition resolvers and other limiter callbacks must read the request through
+ * {@link WebFluxContext#getExchange()}, as those of {@link WebFluxConcurrencyLimitBuilder} do.
+ */
+public class WebFluxConcurrencyLimitGlobalWebFilter implements WebFilter, Ordered {
+
+  private final Function<WebFluxContext, Mono<Optional<Limiter.Listener>>> admission;
+
+  private final Predicate<ServerWebExchange> successResponse;
+
+  private final int order;
+
+  public WebFluxConcurrencyLimitGlobalWebFilter(Limiter<WebFluxContext> limiter, Predicate<ServerWebExchange> successResponse,
+    int order) {
+    this.admission = context -> Mono.fromSupplier(() -> limiter.acquire(context));
+    this.successResponse = successResponse;
+    this.order = order;
+  }
+
+  /**
+   * Lets requests wait in {@code admissionQueue} for a permit instead of rejecting them as soon as the limit is reached.
+   */
+  public WebFluxConcurrencyLimitGlobalWebFilter(ReactiveAdmissionQueue admissionQueue, Predicate<ServerWebExchange> successResponse,
+    int order) {
+    this.admission = admissionQueue::acquire;
+    this.successResponse = successResponse;
+    this.order = order;
+  }
+
+  public static WebFluxConcurrencyLimitGlobalWebFilter of(Limiter<WebFluxContext> limiter) {
+    return of(limiter, WebFluxConcurrencyLimitGlobalWebFilter::isSuccessful);
+  }
+
+  public static WebFluxConcurrencyLimitGlobalWebFilter of(Limiter<WebFluxContext> limiter, Predicate<ServerWebExchange> successResponse) {
+    return new WebFluxConcurrencyLimitGlobalWebFilter(limiter, successResponse, Ordered.HIGHEST_PRECEDENCE);
+  }
+
+  public static WebFluxConcurrencyLimitGlobalWebFilter of(ReactiveAdmissionQueue admissionQueue) {
+    return new WebFluxConcurrencyLimitGlobalWebFilter(admissionQueue, WebFluxConcurrencyLimitGlobalWebFilter::isSuccessful,
+      Ordered.HIGHEST_PRECEDENCE);
+  }
+
+  private static boolean isSuccessful(ServerWebExchange exchange) {
+    HttpStatus status = exchange.getResponse()
+      .getStatusCode();
+    return status == null || status.is2xxSuccessful();
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    return admission.apply(new WebFluxContext(exchange))
+      .flatMap(listenerOptional -> filter(exchange, chain, listenerOptional));
+  }
+
+  private Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain, Optional<Limiter.Listener> listenerOptional) {
+    if (!listenerOptional.isPresent()) {
+      exchange.getResponse()
+        .setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+      return exchange.getResponse()
+        .setComplete();
+    }
+
+    LimiterPermit permit = new LimiterPermit(listenerOptional.get());
+    return chain.filter(exchange)
+      .doFinally(signal -> {
+        if (signal == SignalType.ON_COMPLETE && successResponse.test(exchange)) {
+          permit.success();
+        }
+        else {
+          permit.ignore();
+        }
+      });
+  }
+
+  @Override
+  public int getOrder() {
+    return order;
+  }
+}
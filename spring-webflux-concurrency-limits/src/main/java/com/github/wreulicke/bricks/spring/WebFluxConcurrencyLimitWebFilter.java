@@ -24,6 +24,8 @@
 package com.github.wreulicke.bricks.spring;
 
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 import org.springframework.http.HttpStatus;
@@ -38,12 +40,20 @@ import reactor.core.publisher.Mono;
 
 public class WebFluxConcurrencyLimitWebFilter implements HandlerFilterFunction<ServerResponse, ServerResponse> {
 
-  private final Limiter<WebFluxContext> limiter;
+  private final Function<WebFluxContext, Mono<Optional<Limiter.Listener>>> admission;
 
   private final Predicate<ServerResponse> successResponse;
 
   public WebFluxConcurrencyLimitWebFilter(Limiter<WebFluxContext> limiter, Predicate<ServerResponse> successResponse) {
-    this.limiter = limiter;
+    this.admission = context -> Mono.fromSupplier(() -> limiter.acquire(context));
+    this.successResponse = successResponse;
+  }
+
+  /**
+   * Lets requests wait in {@code admissionQueue} for a permit instead of rejecting them as soon as the limit is reached.
+   */
+  public WebFluxConcurrencyLimitWebFilter(ReactiveAdmissionQueue admissionQueue, Predicate<ServerResponse> successResponse) {
+    this.admission = admissionQueue::acquire;
     this.successResponse = successResponse;
   }
 
@@ -56,25 +66,42 @@ public class WebFluxConcurrencyLimitWebFilter implements HandlerFilterFunction<S
     return new WebFluxConcurrencyLimitWebFilter(limiter, successResponse);
   }
 
+  public static WebFluxConcurrencyLimitWebFilter of(ReactiveAdmissionQueue admissionQueue) {
+    return new WebFluxConcurrencyLimitWebFilter(admissionQueue, serverResponse -> serverResponse.statusCode()
+      .is2xxSuccessful());
+  }
+
   @Override
   public Mono<ServerResponse> filter(ServerRequest request, HandlerFunction<ServerResponse> next) {
-    Optional<Limiter.Listener> listenerOptional = limiter.acquire(new WebFluxContext(request));
+    return admission.apply(new WebFluxContext(request))
+      .flatMap(listenerOptional -> filter(request, next, listenerOptional));
+  }
+
+  private Mono<ServerResponse> filter(ServerRequest request, HandlerFunction<ServerResponse> next,
+    Optional<Limiter.Listener> listenerOptional) {
     if (!listenerOptional.isPresent()) {
       return ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS)
         .build();
     }
 
-    Limiter.Listener listener = listenerOptional.get();
+    LimiterPermit permit = new LimiterPermit(listenerOptional.get());
+    AtomicBoolean responded = new AtomicBoolean();
 
+    // the permit is released once the response is written, or right away if the handler fails, completes empty or is
+    // cancelled before producing a response. A response that is never written releases it when the exchange commits
+    // another one instead.
     return next.handle(request)
-      .doAfterSuccessOrError(((serverResponse, throwable) -> {
-        if (throwable != null) {
-          listener.onIgnore();
-          return;
-        }
-        if (successResponse.test(serverResponse)) {
-          listener.onSuccess();
+      .<ServerResponse> map(serverResponse -> {
+        responded.set(true);
+        LimitedServerResponse limitedResponse = new LimitedServerResponse(serverResponse, permit, successResponse);
+        limitedResponse.releaseUnlessWritten(request.exchange()
+          .getResponse());
+        return limitedResponse;
+      })
+      .doFinally(signal -> {
+        if (!responded.get()) {
+          permit.ignore();
         }
-      }));
+      });
   }
 }
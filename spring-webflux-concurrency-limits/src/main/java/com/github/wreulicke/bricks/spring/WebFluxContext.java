@@ -24,16 +24,35 @@
 package com.github.wreulicke.bricks.spring;
 
 import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.server.ServerWebExchange;
 
 public class WebFluxContext {
 
   private final ServerRequest request;
 
+  private final ServerWebExchange exchange;
+
   public WebFluxContext(ServerRequest request) {
     this.request = request;
+    this.exchange = request.exchange();
+  }
+
+  public WebFluxContext(ServerWebExchange exchange) {
+    this.request = null;
+    this.exchange = exchange;
   }
 
+  /**
+   * @return the functional request, or null when the context was created by a {@code WebFilter}
+   * @deprecated not available to contexts created by {@link WebFluxConcurrencyLimitGlobalWebFilter}; use
+   *             {@link #getExchange()}, which every context has
+   */
+  @Deprecated
   public ServerRequest getRequest() {
     return request;
   }
+
+  public ServerWebExchange getExchange() {
+    return exchange;
+  }
 }
@@ -0,0 +1,184 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.function.Function;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
+import org.springframework.http.server.reactive.AbstractServerHttpResponse;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebExchange;
+
+import org.junit.jupiter.api.Test;
+
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+class LimitedServerResponseTest {
+
+  private final SimpleLimiter<WebFluxContext> limiter = SimpleLimiter.newBuilder()
+    .limit(FixedLimit.of(1))
+    .build();
+
+  private final FakeHttpResponse httpResponse = new FakeHttpResponse();
+
+  @Test
+  public void permitIsHeldUntilBodyIsWritten() {
+    MonoProcessor<Void> body = MonoProcessor.create();
+    LimitedServerResponse sut = limitedResponse(HttpStatus.OK, body);
+
+    sut.writeTo(null, null)
+      .subscribe();
+    assertThat(limiter.getInflight()).isEqualTo(1);
+
+    body.onComplete();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void permitIsReleasedWhenWriteIsCancelled() {
+    LimitedServerResponse sut = limitedResponse(HttpStatus.OK, Mono.never());
+
+    Disposable writing = sut.writeTo(null, null)
+      .subscribe();
+    writing.dispose();
+
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void permitIsReleasedWhenAnotherResponseIsCommitted() {
+    LimitedServerResponse sut = limitedResponse(HttpStatus.OK, Mono.never());
+    sut.releaseUnlessWritten(httpResponse);
+
+    httpResponse.setComplete()
+      .block();
+
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void permitIsHeldWhileItsOwnResponseIsCommitted() {
+    MonoProcessor<Void> body = MonoProcessor.create();
+    LimitedServerResponse sut = limitedResponse(HttpStatus.OK, Mono.defer(httpResponse::setComplete)
+      .then(body));
+    sut.releaseUnlessWritten(httpResponse);
+
+    sut.writeTo(null, null)
+      .subscribe();
+    assertThat(httpResponse.isCommitted()).isTrue();
+    assertThat(limiter.getInflight()).isEqualTo(1);
+
+    body.onComplete();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  private LimitedServerResponse limitedResponse(HttpStatus status, Mono<Void> body) {
+    Limiter.Listener listener = limiter.acquire(new WebFluxContext((ServerWebExchange) null))
+      .get();
+    return new LimitedServerResponse(new FakeServerResponse(status, exchange -> body), new LimiterPermit(listener),
+      response -> response.statusCode()
+        .is2xxSuccessful());
+  }
+
+  private static class FakeServerResponse implements ServerResponse {
+
+    private final HttpStatus status;
+
+    private final Function<ServerWebExchange, Mono<Void>> body;
+
+    FakeServerResponse(HttpStatus status, Function<ServerWebExchange, Mono<Void>> body) {
+      this.status = status;
+      this.body = body;
+    }
+
+    @Override
+    public HttpStatus statusCode() {
+      return status;
+    }
+
+    @Override
+    public HttpHeaders headers() {
+      return new HttpHeaders();
+    }
+
+    @Override
+    public MultiValueMap<String, ResponseCookie> cookies() {
+      return new LinkedMultiValueMap<>();
+    }
+
+    @Override
+    public Mono<Void> writeTo(ServerWebExchange exchange, Context context) {
+      return body.apply(exchange);
+    }
+  }
+
+  private static class FakeHttpResponse extends AbstractServerHttpResponse {
+
+    FakeHttpResponse() {
+      super(new DefaultDataBufferFactory());
+    }
+
+    @Override
+    public <T> T getNativeResponse() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected Mono<Void> writeWithInternal(Publisher<? extends DataBuffer> body) {
+      return Mono.empty();
+    }
+
+    @Override
+    protected Mono<Void> writeAndFlushWithInternal(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+      return Mono.empty();
+    }
+
+    @Override
+    protected void applyStatusCode() {
+    }
+
+    @Override
+    protected void applyHeaders() {
+    }
+
+    @Override
+    protected void applyCookies() {
+    }
+  }
+}
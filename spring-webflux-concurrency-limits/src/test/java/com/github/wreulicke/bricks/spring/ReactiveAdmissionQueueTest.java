@@ -0,0 +1,256 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.web.server.ServerWebExchange;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+class ReactiveAdmissionQueueTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  private final SimpleLimiter<WebFluxContext> limiter = SimpleLimiter.newBuilder()
+    .limit(FixedLimit.of(1))
+    .build();
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void waiterIsResumedWhenPermitIsReleased() {
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(limiter, 10, Duration.ofSeconds(10));
+    Limiter.Listener first = acquire(sut).get();
+    AtomicReference<Optional<Limiter.Listener>> second = new AtomicReference<>();
+
+    sut.acquire(context())
+      .subscribe(second::set);
+    assertThat(sut.getWaiterCount()).isEqualTo(1);
+    assertThat(second.get()).isNull();
+
+    first.onSuccess();
+
+    Optional<Limiter.Listener> resumed = awaitValue(second);
+    assertThat(resumed).isPresent();
+    assertThat(sut.getWaiterCount()).isZero();
+    resumed.get()
+      .onSuccess();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void waiterIsRejectedAfterMaxWait() {
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(limiter, 10, Duration.ofMillis(50));
+    acquire(sut);
+
+    assertThat(acquire(sut)).isEmpty();
+    assertThat(sut.getWaiterCount()).isZero();
+  }
+
+  @Test
+  public void waiterIsRejectedWhenQueueIsFull() {
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(limiter, 1, Duration.ofSeconds(10));
+    acquire(sut);
+    sut.acquire(context())
+      .subscribe();
+
+    long start = System.nanoTime();
+    assertThat(acquire(sut)).isEmpty();
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Test
+  public void cancelledWaiterLeavesQueueWithoutTakingPermit() {
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(limiter, 10, Duration.ofSeconds(10));
+    Limiter.Listener first = acquire(sut).get();
+
+    Disposable waiting = sut.acquire(context())
+      .subscribe();
+    waiting.dispose();
+    assertThat(sut.getWaiterCount()).isZero();
+
+    first.onSuccess();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void permitGrantedToCancelledWaiterIsReleased() {
+    List<Runnable> resumptions = new CopyOnWriteArrayList<>();
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(limiter, 10, Duration.ofSeconds(10), false, Schedulers.parallel(),
+      Schedulers.fromExecutor(resumptions::add));
+    Limiter.Listener first = acquire(sut).get();
+
+    Disposable waiting = sut.acquire(context())
+      .subscribe();
+    first.onSuccess();
+    assertThat(limiter.getInflight()).isEqualTo(1);
+
+    waiting.dispose();
+    resumptions.forEach(Runnable::run);
+
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void permitDeliveredToWaiterIsKeptWhenItCancelsOnReceipt() {
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(limiter, 10, Duration.ofSeconds(10));
+    Limiter.Listener first = acquire(sut).get();
+    AtomicReference<Optional<Limiter.Listener>> second = new AtomicReference<>();
+    sut.acquire(context())
+      .flux()
+      .take(1)
+      .subscribe(second::set);
+
+    first.onSuccess();
+
+    assertThat(awaitValue(second)).isPresent();
+    assertThat(limiter.getInflight()).isEqualTo(1);
+  }
+
+  @Test
+  public void lifoResumesNewestWaiterFirst() {
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(limiter, 10, Duration.ofSeconds(10), true);
+    Limiter.Listener first = acquire(sut).get();
+    AtomicReference<Optional<Limiter.Listener>> older = new AtomicReference<>();
+    AtomicReference<Optional<Limiter.Listener>> newer = new AtomicReference<>();
+    sut.acquire(context())
+      .subscribe(older::set);
+    sut.acquire(context())
+      .subscribe(newer::set);
+
+    first.onSuccess();
+
+    assertThat(awaitValue(newer)).isPresent();
+    assertThat(older.get()).isNull();
+  }
+
+  @Test
+  public void refusedBackgroundWaiterDoesNotHoldBackNewCriticalRequest() {
+    SimpleLimiter<WebFluxContext> delegate = SimpleLimiter.newBuilder()
+      .limit(FixedLimit.of(10))
+      .build();
+    WebFluxContext background = context();
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(new CriticalityLimiter(delegate, context -> context == background
+      ? Criticality.BACKGROUND : Criticality.CRITICAL), 10, Duration.ofSeconds(10));
+    for (int i = 0; i < 7; i++) {
+      acquire(sut);
+    }
+    sut.acquire(background)
+      .subscribe();
+    assertThat(sut.getWaiterCount()).isEqualTo(1);
+
+    assertThat(acquire(sut)).isPresent();
+    assertThat(sut.getWaiterCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void releasedPermitGoesToCriticalWaiterBehindRefusedBackgroundWaiter() {
+    SimpleLimiter<WebFluxContext> delegate = SimpleLimiter.newBuilder()
+      .limit(FixedLimit.of(10))
+      .build();
+    WebFluxContext background = context();
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(new CriticalityLimiter(delegate, context -> context == background
+      ? Criticality.BACKGROUND : Criticality.CRITICAL), 10, Duration.ofSeconds(10));
+    Limiter.Listener first = acquire(sut).get();
+    for (int i = 1; i < 10; i++) {
+      acquire(sut);
+    }
+    AtomicReference<Optional<Limiter.Listener>> backgroundWaiter = new AtomicReference<>();
+    AtomicReference<Optional<Limiter.Listener>> criticalWaiter = new AtomicReference<>();
+    sut.acquire(background)
+      .subscribe(backgroundWaiter::set);
+    sut.acquire(context())
+      .subscribe(criticalWaiter::set);
+
+    first.onSuccess();
+
+    assertThat(awaitValue(criticalWaiter)).isPresent();
+    assertThat(backgroundWaiter.get()).isNull();
+    assertThat(sut.getWaiterCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void everyWaiterIsServedUnderContention() throws InterruptedException {
+    ReactiveAdmissionQueue sut = new ReactiveAdmissionQueue(limiter, 1000, Duration.ofSeconds(10));
+    int requests = 500;
+    CountDownLatch served = new CountDownLatch(requests);
+
+    for (int i = 0; i < requests; i++) {
+      executor.execute(() -> sut.acquire(context())
+        .subscribe(listener -> {
+          if (listener.isPresent()) {
+            executor.execute(() -> {
+              listener.get()
+                .onSuccess();
+              served.countDown();
+            });
+          }
+        }));
+    }
+
+    assertThat(served.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  private static Optional<Limiter.Listener> acquire(ReactiveAdmissionQueue sut) {
+    return sut.acquire(context())
+      .block(TIMEOUT);
+  }
+
+  private static <T> T awaitValue(AtomicReference<T> value) {
+    long deadline = System.nanoTime() + TIMEOUT.toNanos();
+    while (value.get() == null && System.nanoTime() < deadline) {
+      Thread.yield();
+    }
+    return value.get();
+  }
+
+  private static WebFluxContext context() {
+    return new WebFluxContext((ServerWebExchange) null);
+  }
+}
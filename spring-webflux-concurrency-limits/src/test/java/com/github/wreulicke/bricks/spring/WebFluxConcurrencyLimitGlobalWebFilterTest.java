@@ -0,0 +1,200 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2019 Wreulicke
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.wreulicke.bricks.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.server.reactive.AbstractServerHttpRequest;
+import org.springframework.http.server.reactive.AbstractServerHttpResponse;
+import org.springframework.http.server.reactive.SslInfo;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.adapter.DefaultServerWebExchange;
+import org.springframework.web.server.i18n.AcceptHeaderLocaleContextResolver;
+import org.springframework.web.server.session.DefaultWebSessionManager;
+
+import org.junit.jupiter.api.Test;
+
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+class WebFluxConcurrencyLimitGlobalWebFilterTest {
+
+  private final SimpleLimiter<WebFluxContext> limiter = SimpleLimiter.newBuilder()
+    .limit(FixedLimit.of(1))
+    .build();
+
+  private final WebFluxConcurrencyLimitGlobalWebFilter sut = WebFluxConcurrencyLimitGlobalWebFilter.of(limiter);
+
+  @Test
+  public void permitIsHeldUntilChainCompletes() {
+    MonoProcessor<Void> handled = MonoProcessor.create();
+    ServerWebExchange exchange = exchange();
+
+    sut.filter(exchange, ignore -> handled)
+      .subscribe();
+    assertThat(limiter.getInflight()).isEqualTo(1);
+
+    handled.onComplete();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void requestIsRejectedWithTooManyRequestsWhenLimitIsReached() {
+    Optional<Limiter.Listener> held = limiter.acquire(new WebFluxContext(exchange()));
+    AtomicBoolean handled = new AtomicBoolean();
+    ServerWebExchange exchange = exchange();
+
+    sut.filter(exchange, ignore -> Mono.fromRunnable(() -> handled.set(true)))
+      .block();
+
+    assertThat(exchange.getResponse()
+      .getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    assertThat(handled.get()).isFalse();
+    held.get()
+      .onSuccess();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void permitIsReleasedWhenChainFails() {
+    ServerWebExchange exchange = exchange();
+
+    sut.filter(exchange, ignore -> Mono.error(new IllegalStateException("handler failed")))
+      .onErrorResume(e -> Mono.empty())
+      .block();
+
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test
+  public void partitionResolverReadsRequestThroughExchange() {
+    Limiter<WebFluxContext> partitioned = new WebFluxConcurrencyLimitBuilder().partitionByHeaderName("X-Tenant")
+      .partition("a", 1.0)
+      .limit(FixedLimit.of(1))
+      .build();
+    WebFluxConcurrencyLimitGlobalWebFilter filter = WebFluxConcurrencyLimitGlobalWebFilter.of(partitioned);
+    ServerWebExchange exchange = exchange();
+
+    filter.filter(exchange, ignore -> Mono.empty())
+      .block();
+
+    assertThat(exchange.getResponse()
+      .getStatusCode()).isNull();
+  }
+
+  private static ServerWebExchange exchange() {
+    return new DefaultServerWebExchange(new FakeHttpRequest(), new FakeHttpResponse(), new DefaultWebSessionManager(),
+      ServerCodecConfigurer.create(), new AcceptHeaderLocaleContextResolver());
+  }
+
+  private static class FakeHttpRequest extends AbstractServerHttpRequest {
+
+    FakeHttpRequest() {
+      super(URI.create("http://localhost/items"), "", headers());
+    }
+
+    private static HttpHeaders headers() {
+      HttpHeaders headers = new HttpHeaders();
+      headers.set("X-Tenant", "a");
+      return headers;
+    }
+
+    @Override
+    public String getMethodValue() {
+      return "GET";
+    }
+
+    @Override
+    public Flux<DataBuffer> getBody() {
+      return Flux.empty();
+    }
+
+    @Override
+    protected MultiValueMap<String, HttpCookie> initCookies() {
+      return new LinkedMultiValueMap<>();
+    }
+
+    @Override
+    protected SslInfo initSslInfo() {
+      return null;
+    }
+
+    @Override
+    public <T> T getNativeRequest() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class FakeHttpResponse extends AbstractServerHttpResponse {
+
+    FakeHttpResponse() {
+      super(new DefaultDataBufferFactory());
+    }
+
+    @Override
+    public <T> T getNativeResponse() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected Mono<Void> writeWithInternal(Publisher<? extends DataBuffer> body) {
+      return Mono.empty();
+    }
+
+    @Override
+    protected Mono<Void> writeAndFlushWithInternal(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+      return Mono.empty();
+    }
+
+    @Override
+    protected void applyStatusCode() {
+    }
+
+    @Override
+    protected void applyHeaders() {
+    }
+
+    @Override
+    protected void applyCookies() {
+    }
+  }
+}